@@ -0,0 +1,187 @@
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.HashMap;
+/**
+ * The AddressTable class maps client addresses to values. IPv4 addresses are
+ * packed with their port into a long and kept in an open-addressing table
+ * with linear probing, so a lookup hashes a primitive and touches two flat
+ * arrays instead of hashing an address object and walking boxed entries.
+ * Other addresses, such as IPv6, fall back to a HashMap.
+ *
+ * @param <V>   the type of the values
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public class AddressTable<V> {
+    private static final long NO_KEY = -1L;
+    private long[] keys;
+    private V[] values;
+    private int mask;
+    private int size;
+    private HashMap<SocketAddress, V> others = new HashMap<SocketAddress, V>();
+    /**
+     * Constructor. Constructs an empty table.
+     */
+    public AddressTable() {
+        this(16);
+    }
+    /**
+     * Constructor. Constructs an empty table sized for the given number of
+     * IPv4 entries.
+     * @param expected  the number of entries expected
+     */
+    public AddressTable(int expected) {
+        allocate(Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1);
+    }
+    /**
+     * Packs an IPv4 socket address into a long.
+     * @param address   the address
+     * @return  the packed address and port, or NO_KEY if the address is not
+     *          an IPv4 socket address
+     */
+    private static long key(SocketAddress address) {
+        if (address instanceof InetSocketAddress) {
+            InetSocketAddress socketAddress = (InetSocketAddress) address;
+            InetAddress inetAddress = socketAddress.getAddress();
+            if (inetAddress instanceof Inet4Address) {
+                // the hash code of an IPv4 address is the address itself, and
+                // unlike getAddress() it does not copy it into a new array
+                return ((inetAddress.hashCode() & 0xFFFFFFFFL) << 16)
+                        | socketAddress.getPort();
+            }
+        }
+        return NO_KEY;
+    }
+    /**
+     * Returns the slot a key hashes to.
+     * @param key   the packed address
+     * @return  the index of the first slot to probe
+     */
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+    /**
+     * Looks up the value for an address.
+     * @param address   the address
+     * @return  the value, or null if there is none
+     */
+    public V get(SocketAddress address) {
+        long key = key(address);
+        if (key == NO_KEY) {
+            return others.get(address);
+        }
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+    /**
+     * Maps an address to a value, replacing any previous value.
+     * @param address   the address
+     * @param value     the value, not null
+     */
+    public void put(SocketAddress address, V value) {
+        long key = key(address);
+        if (key == NO_KEY) {
+            others.put(address, value);
+            return;
+        }
+        int i = slot(key);
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > values.length) {
+            resize();
+        }
+    }
+    /**
+     * Removes the value for an address.
+     * @param address   the address
+     * @return  the removed value, or null if there was none
+     */
+    public V remove(SocketAddress address) {
+        long key = key(address);
+        if (key == NO_KEY) {
+            return others.remove(address);
+        }
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V value = values[i];
+                shiftBack(i);
+                size--;
+                return value;
+            }
+        }
+        return null;
+    }
+    /**
+     * Returns the number of entries in the table.
+     * @return  the number of entries
+     */
+    public int size() {
+        return size + others.size();
+    }
+    /**
+     * Empties a slot and moves later entries of the same probe run back into
+     * it, so lookups never need tombstones.
+     * @param hole  the index of the slot to empty
+     */
+    private void shiftBack(int hole) {
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            if (values[i] == null) {
+                break;
+            }
+            int home = slot(keys[i]);
+            // move the entry unless its home lies cyclically in (hole, i]
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        keys[hole] = 0;
+        values[hole] = null;
+    }
+    /**
+     * Doubles the capacity of the table.
+     */
+    private void resize() {
+        long[] oldKeys = keys;
+        V[] oldValues = values;
+        allocate(oldValues.length * 2);
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] != null) {
+                int i = slot(oldKeys[j]);
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+    /**
+     * Allocates empty arrays.
+     * @param capacity  the number of slots, a power of two
+     */
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = (V[]) new Object[capacity];
+        mask = capacity - 1;
+    }
+}
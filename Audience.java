@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+/**
+ * The Audience class is the model listener for the spectators of one game
+ * session. Every update is encoded once, into a buffer of its own, and that
+ * one buffer is handed to the outbox for every spectator's address, so a
+ * game's CPU cost grows only by a send per spectator, not by an encode.
+ * <P>
+ * Spectators get the session's updates as plain datagrams, even over a
+ * reliable link, because every state update carries the whole state of the
+ * game and the next one repairs a lost one. An audience is only touched by
+ * its session's owner.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public class Audience implements ModelListener {
+    private Outbox outbox;
+    private ServerMetrics metrics;
+    private SocketAddress[] viewers = new SocketAddress[4];
+    private int count;
+    private ByteBuffer scratch = ByteBuffer.allocate(NimCodec.MAX_FRAME);
+    /**
+     * Constructor.
+     * @param outbox    the outbox the updates are sent through
+     * @param metrics   the metrics that count the updates
+     */
+    public Audience(Outbox outbox, ServerMetrics metrics) {
+        this.outbox = outbox;
+        this.metrics = metrics;
+    }
+    /**
+     * Adds a spectator.
+     * @param viewer    the spectator's address
+     */
+    void add(SocketAddress viewer) {
+        if (count == viewers.length) {
+            SocketAddress[] larger = new SocketAddress[2 * count];
+            System.arraycopy(viewers, 0, larger, 0, count);
+            viewers = larger;
+        }
+        viewers[count++] = viewer;
+    }
+    /**
+     * Removes a spectator.
+     * @param viewer    the spectator's address
+     */
+    void remove(SocketAddress viewer) {
+        for (int i = 0; i < count; i++) {
+            if (viewers[i].equals(viewer)) {
+                viewers[i] = viewers[--count];
+                viewers[count] = null;
+                return;
+            }
+        }
+    }
+    /**
+     * Returns the number of spectators.
+     * @return  the number of spectators
+     */
+    int size() {
+        return count;
+    }
+    // implement ModelListener
+    /**
+     * Spectators get their id when they start watching, so this method does
+     * nothing.
+     * @param id    the player's id
+     */
+    public void id(int id) {}
+    /**
+     * This method sets the player names.
+     * @param id    the player to whom this name belongs
+     * @param name  the player's name
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public void name(int id, String name) throws IOException {
+        if (count > 0) {
+            NimCodec.putName(frame(), id, name);
+            send();
+        }
+    }
+    /**
+     * This method sets the player scores.
+     * @param id    the player to whom this score belongs
+     * @param score the player's score
+     */
+    public void score(int id, int score) {
+        if (count > 0) {
+            NimCodec.putScore(frame(), id, score);
+            send();
+        }
+    }
+    /**
+     * This method updates the state of a heap.
+     * @param heapId    the id of the heap
+     * @param markers   the amount of markers in the heap
+     */
+    public void heap(int heapId, int markers) {
+        if (count > 0) {
+            NimCodec.putHeap(frame(), heapId, markers);
+            send();
+        }
+    }
+    /**
+     * This method tells the spectators whose turn it is.
+     * @param id    id of the player who is taking their turn
+     */
+    public void turn(int id) {
+        if (count > 0) {
+            NimCodec.putTurn(frame(), id);
+            send();
+        }
+    }
+    /**
+     * This method informs the spectators of the game's winner.
+     * @param id    id belonging to the winner
+     */
+    public void win(int id) {
+        if (count > 0) {
+            NimCodec.putWin(frame(), id);
+            send();
+        }
+    }
+    /**
+     * This method updates the whole game state in a single datagram.
+     * @param heaps     the amount of markers in each heap
+     * @param turn      id of the player who is taking their turn
+     * @param scores    each player's score
+     * @param winner    id belonging to the winner, or -1 if the game is not
+     *                  over
+     */
+    public void state(int[] heaps, int turn, int[] scores, int winner) {
+        if (count > 0) {
+            NimCodec.putState(frame(), heaps, turn, scores, winner);
+            send();
+        }
+    }
+    /**
+     * This method informs the spectators that the game ended.
+     */
+    public void quit() {
+        if (count > 0) {
+            NimCodec.putQuit(frame());
+            send();
+        }
+    }
+    /**
+     * Returns the scratch buffer, cleared for the next frame.
+     * @return  the scratch buffer
+     */
+    private ByteBuffer frame() {
+        scratch.clear();
+        return scratch;
+    }
+    /**
+     * Copies the frame in the scratch buffer into a buffer of its own, which
+     * the outbox keeps until it has been sent to every spectator.
+     */
+    private void send() {
+        scratch.flip();
+        ByteBuffer frame = ByteBuffer.allocate(scratch.remaining());
+        frame.put(scratch).flip();
+        metrics.outbound(frame.get(0), count);
+        outbox.sendAll(frame, viewers, count);
+    }
+}
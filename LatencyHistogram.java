@@ -0,0 +1,88 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+/**
+ * The LatencyHistogram class counts recorded values in log-linear buckets: the
+ * values below 16 each have their own bucket, and every power of two above
+ * that is split into 8 buckets, so a percentile is accurate to within 12.5%.
+ * Recording is a single atomic increment and never blocks, so many threads
+ * can record into one histogram.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int LINEAR = 2 * SUB;
+    private static final int BUCKETS = LINEAR + (63 - SUB_BITS) * SUB;
+    private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    /**
+     * Constructor. Constructs an empty histogram.
+     */
+    public LatencyHistogram() {}
+    /**
+     * Records a value.
+     * @param value the value, negative values count as 0
+     */
+    public void record(long value) {
+        counts.incrementAndGet(index(Math.max(value, 0)));
+    }
+    /**
+     * Returns the number of values recorded.
+     * @return  the number of values
+     */
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+    /**
+     * Returns an upper bound of the value below which the given fraction of
+     * the recorded values fall.
+     * @param fraction  the fraction, for example 0.99 for the 99th percentile
+     * @return  the percentile, or 0 if nothing was recorded
+     */
+    public long percentile(double fraction) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return highest(i);
+            }
+        }
+        return highest(BUCKETS - 1);
+    }
+    /**
+     * Returns the bucket of a value.
+     * @param value the value, not negative
+     * @return  the index of the bucket
+     */
+    private static int index(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB - 1);
+        return LINEAR + (exponent - SUB_BITS - 1) * SUB + sub;
+    }
+    /**
+     * Returns the highest value that falls into a bucket.
+     * @param index the index of the bucket
+     * @return  the highest value of the bucket
+     */
+    private static long highest(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int exponent = (index - LINEAR) / SUB + SUB_BITS + 1;
+        long sub = (index - LINEAR) % SUB;
+        long width = 1L << (exponent - SUB_BITS);
+        return ((SUB + sub) * width) + width - 1;
+    }
+}
@@ -0,0 +1,146 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+/**
+ * The Leaderboard class is the in-memory index of the results log. It keeps
+ * every player's wins and losses in a hash map for per-player queries and in
+ * a skip list ordered by wins for top-N queries, so both are answered without
+ * touching the log.
+ * <P>
+ * Only the results log's writer thread updates the leaderboard; queries may
+ * come from any thread and see each player's standing as of some recent
+ * result.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public class Leaderboard implements LeaderboardMXBean {
+    private ConcurrentHashMap<String, Standing> players =
+            new ConcurrentHashMap<String, Standing>();
+    private ConcurrentSkipListSet<Standing> ranking =
+            new ConcurrentSkipListSet<Standing>(new Comparator<Standing>() {
+                public int compare(Standing a, Standing b) {
+                    if (a.wins != b.wins) {
+                        return a.wins > b.wins ? -1 : 1;
+                    }
+                    if (a.losses != b.losses) {
+                        return a.losses < b.losses ? -1 : 1;
+                    }
+                    return a.name.compareTo(b.name);
+                }
+            });
+    /**
+     * Constructor. Constructs an empty leaderboard.
+     */
+    public Leaderboard() {}
+    /**
+     * Counts a finished game. Only the results log's writer thread calls this
+     * method.
+     * @param names     the players' names
+     * @param players   the number of players
+     * @param winner    id belonging to the winner
+     */
+    void record(String[] names, int players, int winner) {
+        for (int i = 0; i < players; i++) {
+            Standing standing = this.players.get(names[i]);
+            if (standing == null) {
+                standing = new Standing(names[i]);
+                this.players.put(names[i], standing);
+            } else {
+                // the ranking is ordered by the counts, so take the player out
+                // while the counts change
+                ranking.remove(standing);
+            }
+            if (i == winner) {
+                standing.wins++;
+            } else {
+                standing.losses++;
+            }
+            ranking.add(standing);
+        }
+    }
+    /**
+     * Returns the players with the most wins.
+     * @param n the number of players
+     * @return  up to n standings, best first
+     */
+    public List<Standing> top(int n) {
+        List<Standing> top = new ArrayList<Standing>(Math.max(0, n));
+        for (Standing standing : ranking) {
+            if (top.size() >= n) {
+                break;
+            }
+            top.add(standing);
+        }
+        return top;
+    }
+    /**
+     * Returns a player's standing.
+     * @param name  the player's name
+     * @return  the standing, or null if the player never finished a game
+     */
+    public Standing standing(String name) {
+        return players.get(name);
+    }
+    // implement LeaderboardMXBean
+    public int getPlayers() {
+        return players.size();
+    }
+    public String[] topPlayers(int n) {
+        List<Standing> top = top(n);
+        String[] lines = new String[top.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = (i + 1) + ". " + top.get(i);
+        }
+        return lines;
+    }
+    public String player(String name) {
+        Standing standing = standing(name);
+        return standing == null ? name + " has no results" : standing.toString();
+    }
+    /**
+     * A Standing is one player's record.
+     */
+    public static class Standing {
+        private String name;
+        private volatile int wins;
+        private volatile int losses;
+        /**
+         * Constructor. Constructs a standing without games.
+         * @param name  the player's name
+         */
+        public Standing(String name) {
+            this.name = name;
+        }
+        /**
+         * Returns the player's name.
+         * @return  the name
+         */
+        public String getName() {
+            return name;
+        }
+        /**
+         * Returns the number of games the player won.
+         * @return  the wins
+         */
+        public int getWins() {
+            return wins;
+        }
+        /**
+         * Returns the number of games the player lost.
+         * @return  the losses
+         */
+        public int getLosses() {
+            return losses;
+        }
+        /**
+         * Returns the standing as text.
+         * @return  the name, the wins and the losses
+         */
+        public String toString() {
+            return name + " " + wins + " won " + losses + " lost";
+        }
+    }
+}
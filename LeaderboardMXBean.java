@@ -0,0 +1,26 @@
+/**
+ * The LeaderboardMXBean interface lays out the leaderboard queries published
+ * over JMX.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public interface LeaderboardMXBean {
+    /**
+     * Returns the number of players who finished a game.
+     * @return  the number of players
+     */
+    public int getPlayers();
+    /**
+     * Lists the players with the most wins.
+     * @param n the number of players
+     * @return  up to n lines, best first
+     */
+    public String[] topPlayers(int n);
+    /**
+     * Describes a player's wins and losses.
+     * @param name  the player's name
+     * @return  the player's standing
+     */
+    public String player(String name);
+}
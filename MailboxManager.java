@@ -1,45 +1,167 @@
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.SocketAddress;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.ConcurrentLinkedQueue;
 /**
  * The MailboxManager class manages the mailbox for NimServer. It tracks all
  * relevant view proxies, reads incoming datagrams, and forwards datagrams to
  * the correct view proxy.
- * 
+ * <P>
+ * The mailbox is a non-blocking datagram channel registered with a selector.
+ * Every wakeup drains all pending datagrams into a single reused direct
+ * buffer, which the view proxy decodes in place. Replies are queued in the
+ * mailbox's outbox and sent by its own thread, so a move that produces many
+ * datagrams does not hold up the next receive.
+ * <P>
+ * When the server runs several shards, each mailbox manager is one shard. A
+ * session is owned by the shard of the player who created it, and messages
+ * from a player on another shard are posted to the owner's task queue, so a
+ * session's model is only ever touched by its owner's thread. When sessions
+ * run on their own serial executors instead, the mailbox manager only decodes
+ * messages and dispatches them to the session's executor.
+ *
  * @author  Pavel Rozvora (pxr8306)
  * @version 2015-12-08
  */
-public class MailboxManager {
-    private DatagramSocket mailbox;
-    private HashMap<SocketAddress, NimViewProxy> proxyMap = 
-            new HashMap<SocketAddress, NimViewProxy>();
-    private byte[] message = new byte[128];
-    private SessionManager sessionManager = new SessionManager();
+public class MailboxManager implements TaskQueue {
+    private DatagramChannel mailbox;
+    private Selector selector;
+    private AddressTable<NimViewProxy> proxyMap =
+            new AddressTable<NimViewProxy>();
+    private ByteBuffer message = ByteBuffer.allocateDirect(NimCodec.MAX_FRAME);
+    private SessionManager sessionManager;
+    private ConcurrentLinkedQueue<Task> tasks =
+            new ConcurrentLinkedQueue<Task>();
+    private volatile Thread thread;
+    private TimerWheel timers = new TimerWheel(10, 512);
+    private Outbox outbox;
+    private ServerMetrics metrics;
     /**
      * Constructor. Constructs a mailbox manager.
-     * @param mailbox  mailbox to read datagrams from 
+     * @param mailbox           mailbox to read datagrams from
+     * @param sessionManager    the session manager shared by all shards
+     * @throws IOException  Thrown when the selector cannot be opened
      */
-    public MailboxManager(DatagramSocket mailbox) {
+    public MailboxManager(DatagramChannel mailbox,
+            SessionManager sessionManager) throws IOException {
         this.mailbox = mailbox;
+        this.sessionManager = sessionManager;
+        this.selector = Selector.open();
+        mailbox.configureBlocking(false);
+        mailbox.register(selector, SelectionKey.OP_READ);
+        this.outbox = new Outbox(mailbox);
+        this.metrics = sessionManager.metrics();
+        metrics.addShard(this);
     }
     /**
-     * This method reads in a datagram and processes it.
+     * This method waits until datagrams or tasks are available or the next
+     * timer tick, runs every pending task, processes every datagram that is
+     * pending on the mailbox and fires the timers that are due. The session
+     * events of the whole cycle are then written to the journal at once.
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
-    public void receiveMessage() throws IOException {
-        DatagramPacket packet = new DatagramPacket(message, message.length);
-        mailbox.receive(packet);
-        SocketAddress clientAddress = packet.getSocketAddress();
+    public void receiveMessages() throws IOException {
+        thread = Thread.currentThread();
+        selector.select(timers.tick());
+        selector.selectedKeys().clear();
+        Task task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+        SocketAddress clientAddress;
+        while ((clientAddress = mailbox.receive(message)) != null) {
+            message.flip();
+            try {
+                receiveMessage(clientAddress, message);
+            } finally {
+                message.clear();
+            }
+        }
+        timers.advance(TimerWheel.now());
+        SessionJournal journal = sessionManager.journal();
+        if (journal != null) {
+            journal.flush();
+        }
+    }
+    /**
+     * This method processes a single datagram. The first datagram from a
+     * player of a session restored from the journal takes over the proxy the
+     * session was restored with.
+     * @param clientAddress the address the datagram was sent from
+     * @param datagram      the contents of the datagram
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    private void receiveMessage(SocketAddress clientAddress,
+            ByteBuffer datagram) throws IOException {
         NimViewProxy proxy = proxyMap.get(clientAddress);
         if (proxy == null) {
-            proxy = new NimViewProxy(mailbox, clientAddress);
-            proxy.setViewListener(sessionManager);
+            proxy = sessionManager.adopt(clientAddress);
+            if (proxy == null) {
+                proxy = new NimViewProxy(outbox, clientAddress);
+                proxy.setViewListener(sessionManager);
+            }
+            proxy.manager = this;
             proxyMap.put(clientAddress, proxy);
+            proxy.watch(timers);
         }
-        if (proxy.process(packet)) {
+        if (proxy.process(datagram)) {
             proxyMap.remove(clientAddress);
         }
     }
+    /**
+     * Forgets the proxy of a client that has been evicted for silence.
+     * @param clientAddress the client's address
+     */
+    void evict(SocketAddress clientAddress) {
+        proxyMap.remove(clientAddress);
+    }
+    /**
+     * Returns the number of clients this shard has a proxy for. The count may
+     * be stale when read from another thread.
+     * @return  the number of proxies
+     */
+    int proxies() {
+        return proxyMap.size();
+    }
+    /**
+     * Returns the metrics this shard records into.
+     * @return  the server's metrics
+     */
+    ServerMetrics metrics() {
+        return metrics;
+    }
+    /**
+     * Returns the timer wheel of this shard, which is advanced by the
+     * shard's receive loop.
+     * @return  the timer wheel
+     */
+    TimerWheel timers() {
+        return timers;
+    }
+    /**
+     * Returns the outbox of this shard's mailbox, which must be started before
+     * anything is sent.
+     * @return  the outbox
+     */
+    Outbox outbox() {
+        return outbox;
+    }
+    /**
+     * Runs a task on this shard's thread. Tasks from the shard's own thread
+     * run immediately, tasks from other shards are queued and run on the next
+     * wakeup.
+     * @param task  the task to run
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public void execute(Task task) throws IOException {
+        if (Thread.currentThread() == thread) {
+            task.run();
+        } else {
+            tasks.offer(task);
+            selector.wakeup();
+        }
+    }
 }
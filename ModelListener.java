@@ -47,6 +47,32 @@ public interface ModelListener {
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
     public void win(int id) throws IOException;
+    /**
+     * This method updates the whole game state at once. It carries every
+     * heap, every player's score and either the winner or whose turn it is,
+     * so the players never see a partially applied move. By default it is
+     * applied through the individual heap, score, win and turn methods.
+     * @param heaps     the amount of markers in each heap
+     * @param turn      id of the player who is taking their turn
+     * @param scores    each player's score
+     * @param winner    id belonging to the winner, or -1 if the game is not
+     *                  over
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public default void state(int[] heaps, int turn, int[] scores,
+            int winner) throws IOException {
+        for (int i = 0; i < heaps.length; i++) {
+            heap(i, heaps[i]);
+        }
+        for (int i = 0; i < scores.length; i++) {
+            score(i, scores[i]);
+        }
+        if (winner >= 0) {
+            win(winner);
+        } else {
+            turn(turn);
+        }
+    }
     /**
      * This method informs the player that the other player quit by closing
      * the window.
@@ -1,10 +1,25 @@
-import java.net.DatagramSocket;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
 /**
- * Nim is the client's main program. It starts the UI and creates a connection
- * from client to server.
+ * Nim is the client's main program. It creates a connection from client to
+ * server and starts the UI.
  * Usage: java Nim <I>serverhost</I> <I>serverport</I> <I>clienthost</I>
- * <I>clientport</I> <I>playername</I>
+ * <I>clientport</I> <I>playername</I> [<I>players</I>] [bot] [watch]
+ * [reliable] [headless]
+ * <P>
+ * With a number of players the client asks for a session of that size, from
+ * 2 to 8; otherwise it gets the server's default size. With the bot option
+ * the game starts at once, with the server's bots in the other seats.
+ * <P>
+ * With the watch option the client is a spectator: it follows the running
+ * game of the named player, or any running game if the name is *, without
+ * taking part.
+ * <P>
+ * With the headless option, or when the JVM runs with java.awt.headless, the
+ * client plays on the terminal through NimConsole and never loads AWT or
+ * Swing. Either way the join goes out before the UI is built; the server's
+ * answer waits in the socket until the UI reads it.
  * 
  * @author  Pavel Rozvora (pxr8306)
  * @version 2015-12-08
@@ -16,23 +31,66 @@ public class Nim {
      * @throws Exception    Thrown if initialization fails at some point
      */
     public static void main(String[] args) throws Exception {
-        if (args.length != 5) {
+        if (args.length < 5 || args.length > 10) {
             usage();
         }
+        int players = 0;
+        boolean bots = false;
+        boolean watch = false;
+        boolean reliable = false;
+        boolean headless = Boolean.getBoolean("java.awt.headless");
+        for (int i = 5; i < args.length; i++) {
+            if (args[i].matches("[2-8]")) {
+                players = Integer.parseInt(args[i]);
+            } else if (args[i].equals("bot")) {
+                bots = true;
+            } else if (args[i].equals("watch")) {
+                watch = true;
+            } else if (args[i].equals("reliable")) {
+                reliable = true;
+            } else if (args[i].equals("headless")) {
+                headless = true;
+            } else {
+                usage();
+            }
+        }
         String serverhost = args[0];
         int serverport = Integer.parseInt(args[1]);
         String host = args[2];
         int port = Integer.parseInt(args[3]);
         String playername = args[4];
         
-        DatagramSocket mailbox = new DatagramSocket(
+        DatagramChannel mailbox = DatagramChannel.open().bind(
                 new InetSocketAddress(host, port));
-        NimUI view = NimUI.create(playername);
         final NimModelProxy proxy = new NimModelProxy(
-                mailbox, new InetSocketAddress(serverhost, serverport));
+                mailbox, new InetSocketAddress(serverhost, serverport),
+                reliable);
+        if (watch) {
+            proxy.watch(null, playername.equals("*") ? "" : playername);
+        } else {
+            proxy.join(playername, players, bots);
+        }
+        if (headless) {
+            NimConsole console = new NimConsole(System.out);
+            console.setViewListener(proxy);
+            proxy.setModelListener(console);
+            console.run(System.in);
+        } else {
+            window(proxy, watch ? "Watching " + playername : playername);
+        }
+    }
+    /**
+     * Builds the game window and connects it to the server. Only this method
+     * refers to the Swing UI, so a headless client never loads it.
+     * @param proxy the connection to the server
+     * @param title the window's title
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    private static void window(NimModelProxy proxy, String title)
+            throws IOException {
+        NimUI view = NimUI.create(title);
         view.setViewListener(proxy);
         proxy.setModelListener(view);
-        proxy.join(null, playername);
     }
     /**
      * The usage method checks to make sure the program's arguments are
@@ -40,13 +98,23 @@ public class Nim {
      */
     private static void usage() {
         System.err.println("Usage: java Nim <serverhost> <serverport> "
-                + "<clienthost> <clientport> <playername>");
+                + "<clienthost> <clientport> <playername> [<players>] [bot] "
+                + "[watch] [reliable] [headless]");
         System.err.println("<serverhost> is the server's host name or IP address.");
         System.err.println("<serverport> is the port number of the server.");
         System.err.println("<clienthost> is the client's host name or IP address.");
         System.err.println("<clientport> is the port number of the client.");
         System.err.println("<playername> is the player's name. It may not "
                 + "contain whitespace.");
+        System.err.println("<players> is the size of the session to join, "
+                + "2 to 8.");
+        System.err.println("bot starts at once, with bots in the free seats.");
+        System.err.println("watch follows the game of <playername>, or any "
+                + "game for *, as a spectator.");
+        System.err.println("reliable retransmits lost messages, for lossy "
+                + "networks.");
+        System.err.println("headless plays on the terminal, reading moves "
+                + "as <heap> <markers>.");
         System.exit(0);
     }
 }
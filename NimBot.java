@@ -0,0 +1,115 @@
+import java.io.IOException;
+/**
+ * The NimBot class is a computer player that sits in a seat of a game session
+ * on the server. It is the seat's model listener, like a player's proxy, but
+ * it hears the session's updates as method calls and makes its moves by
+ * calling the session, so a bot costs no datagrams at all.
+ * <P>
+ * When it is the bot's turn it picks the best move by the session's rules at
+ * once, and makes it THINK_TIME later through a timer of its shard's wheel,
+ * so a human opponent sees the move happen. The move itself runs on the
+ * session's owner, like every other message for the session; it is dropped
+ * if the game moved on in the meantime.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public class NimBot implements ModelListener {
+    /** The name bots play under. */
+    static final String NAME = "NimBot";
+    /** How long a bot waits before it moves, in ms. */
+    static final long THINK_TIME = 400;
+    private NimModel session;
+    private TimerWheel timers;
+    private int id = -1;
+    // the markers the move takes from each heap, and whether a move is
+    // pending; only touched by the session's owner
+    private int[] takes;
+    private boolean moving;
+    private TaskQueue.Task play = new TaskQueue.Task() {
+        public void run() throws IOException {
+            if (moving && !session.isClosed()) {
+                moving = false;
+                session.take(takes);
+            }
+        }
+    };
+    private TimerWheel.Timer thinkTimer = new TimerWheel.Timer() {
+        protected void expire(long now) throws IOException {
+            session.owner.execute(play);
+        }
+    };
+    /**
+     * Constructor.
+     * @param session   the session the bot plays in
+     * @param timers    the timer wheel of the shard the bot thinks on
+     */
+    public NimBot(NimModel session, TimerWheel timers) {
+        this.session = session;
+        this.timers = timers;
+    }
+    // implement ModelListener
+    /**
+     * This method sets the bot's id.
+     * @param id    the bot's id
+     */
+    public void id(int id) {
+        this.id = id;
+    }
+    /**
+     * Bots do not care about names, so this method does nothing.
+     * @param id    the player to whom this name belongs
+     * @param name  the player's name
+     */
+    public void name(int id, String name) {}
+    /**
+     * Bots do not care about scores, so this method does nothing.
+     * @param id    the player to whom this score belongs
+     * @param score the player's score
+     */
+    public void score(int id, int score) {}
+    /**
+     * Sessions update bots with whole states, so this method does nothing.
+     * @param heapId    the id of the heap
+     * @param markers   the amount of markers in the heap
+     */
+    public void heap(int heapId, int markers) {}
+    /**
+     * Sessions update bots with whole states, so this method does nothing.
+     * @param id    id of the player who is taking their turn
+     */
+    public void turn(int id) {}
+    /**
+     * Sessions update bots with whole states, so this method does nothing.
+     * @param id    id belonging to the winner
+     */
+    public void win(int id) {}
+    /**
+     * This method chooses the bot's move when it is the bot's turn. Any
+     * other state cancels a move the bot has not made yet.
+     * @param heaps     the amount of markers in each heap
+     * @param turn      id of the player who is taking their turn
+     * @param scores    each player's score
+     * @param winner    id belonging to the winner, or -1 if the game is not
+     *                  over
+     */
+    public void state(int[] heaps, int turn, int[] scores, int winner) {
+        if (winner >= 0 || turn != id) {
+            moving = false;
+            return;
+        }
+        if (takes == null || takes.length != heaps.length) {
+            takes = new int[heaps.length];
+        }
+        session.rules().bestMove(heaps, takes);
+        moving = true;
+        timers.schedule(thinkTimer, TimerWheel.now() + THINK_TIME);
+    }
+    /**
+     * This method is called when the session ends; a bot has nothing to
+     * close.
+     */
+    public void quit() {
+        moving = false;
+    }
+}
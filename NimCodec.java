@@ -0,0 +1,419 @@
+import java.io.UTFDataFormatException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+/**
+ * The NimCodec class encodes and decodes the frames of the Nim protocol. Frames
+ * are written into and read from caller-supplied buffers, so a proxy that
+ * reuses its buffers sends and receives messages without allocating.
+ * <P>
+ * Frames with a fixed vocabulary (heap, turn, win, id, quit, new game and
+ * heartbeat) are encoded once into a lookup table and copied into the buffer
+ * on use.
+ * <P>
+ * Heap ids, marker counts, scores and the lengths of lists are varints: seven
+ * bits per byte, least significant first, with the high bit set on every byte
+ * but the last. Values below 128 take a single byte, the same byte as before
+ * varints, so the frames of a standard game are unchanged, and larger boards
+ * and long matches never wrap.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public final class NimCodec {
+    /** The largest frame either side sends or receives. */
+    public static final int MAX_FRAME = 512;
+    /** The longest encoded player name, in bytes. */
+    public static final int MAX_NAME = 255;
+    // messages from server to client
+    public static final byte ID = 'I';
+    public static final byte NAME = 'N';
+    public static final byte SCORE = 'S';
+    public static final byte HEAP = 'H';
+    public static final byte TURN = 'T';
+    public static final byte WIN = 'W';
+    public static final byte STATE = 'U';
+    // messages from client to server
+    public static final byte JOIN = 'J';
+    public static final byte TAKE = 'T';
+    public static final byte MULTI_TAKE = 'M';
+    public static final byte NEW_GAME = 'N';
+    public static final byte HEARTBEAT = 'B';
+    public static final byte WATCH = 'V';
+    // messages in both directions
+    public static final byte QUIT = 'Q';
+    public static final byte RELIABLE = 'R';
+    public static final byte ACK = 'A';
+    // join modes
+    /** Join mode: wait for other players to fill the session. */
+    public static final byte WITH_PLAYERS = 0;
+    /** Join mode: bots take the session's free seats at once. */
+    public static final byte WITH_BOTS = 1;
+
+    private static final int TABLE_IDS = 8;
+    private static final int TABLE_MARKERS = 16;
+    private static final byte[][][] HEAP_FRAMES =
+            new byte[TABLE_IDS][TABLE_MARKERS][];
+    private static final byte[][][] TAKE_FRAMES =
+            new byte[TABLE_IDS][TABLE_MARKERS][];
+    private static final byte[][] ID_FRAMES = new byte[TABLE_IDS][];
+    private static final byte[][] TURN_FRAMES = new byte[TABLE_IDS][];
+    private static final byte[][] WIN_FRAMES = new byte[TABLE_IDS][];
+    private static final byte[] QUIT_FRAME = {QUIT};
+    private static final byte[] NEW_GAME_FRAME = {NEW_GAME};
+    private static final byte[] HEARTBEAT_FRAME = {HEARTBEAT};
+    static {
+        for (int i = 0; i < TABLE_IDS; i++) {
+            for (int m = 0; m < TABLE_MARKERS; m++) {
+                HEAP_FRAMES[i][m] = new byte[] {HEAP, (byte) i, (byte) m};
+                TAKE_FRAMES[i][m] = new byte[] {TAKE, (byte) i, (byte) m};
+            }
+            ID_FRAMES[i] = new byte[] {ID, (byte) i};
+            TURN_FRAMES[i] = new byte[] {TURN, (byte) i};
+            WIN_FRAMES[i] = new byte[] {WIN, (byte) i};
+        }
+    }
+    /**
+     * Constructor. Not used, the codec has only static methods.
+     */
+    private NimCodec() {}
+    /**
+     * Checks whether a value indexes the lookup table.
+     * @param value the value
+     * @param size  the size of the table
+     * @return  true if the value has a pre-encoded frame
+     */
+    private static boolean inTable(int value, int size) {
+        return value >= 0 && value < size;
+    }
+    // encode messages from server to client
+    /**
+     * Encodes a frame that sets the player's id.
+     * @param out   the buffer to write to
+     * @param id    the player's id
+     */
+    public static void putId(ByteBuffer out, int id) {
+        if (inTable(id, TABLE_IDS)) {
+            out.put(ID_FRAMES[id]);
+        } else {
+            out.put(ID).put((byte) id);
+        }
+    }
+    /**
+     * Encodes a frame that sets a player's name.
+     * @param out   the buffer to write to
+     * @param id    the player to whom this name belongs
+     * @param name  the player's name
+     * @throws UTFDataFormatException   Thrown if the name is too long
+     */
+    public static void putName(ByteBuffer out, int id, String name)
+            throws UTFDataFormatException {
+        out.put(NAME).put((byte) id);
+        putUTF(out, name);
+    }
+    /**
+     * Encodes a frame that sets a player's score.
+     * @param out   the buffer to write to
+     * @param id    the player to whom this score belongs
+     * @param score the player's score
+     */
+    public static void putScore(ByteBuffer out, int id, int score) {
+        out.put(SCORE).put((byte) id);
+        putVarint(out, score);
+    }
+    /**
+     * Encodes a frame that updates the state of a heap.
+     * @param out       the buffer to write to
+     * @param heapId    the id of the heap
+     * @param markers   the amount of markers in the heap
+     */
+    public static void putHeap(ByteBuffer out, int heapId, int markers) {
+        if (inTable(heapId, TABLE_IDS) && inTable(markers, TABLE_MARKERS)) {
+            out.put(HEAP_FRAMES[heapId][markers]);
+        } else {
+            out.put(HEAP);
+            putVarint(out, heapId);
+            putVarint(out, markers);
+        }
+    }
+    /**
+     * Encodes a frame that tells the players whose turn it is.
+     * @param out   the buffer to write to
+     * @param id    id of the player who is taking their turn
+     */
+    public static void putTurn(ByteBuffer out, int id) {
+        if (inTable(id, TABLE_IDS)) {
+            out.put(TURN_FRAMES[id]);
+        } else {
+            out.put(TURN).put((byte) id);
+        }
+    }
+    /**
+     * Encodes a frame that informs the players of the game's winner.
+     * @param out   the buffer to write to
+     * @param id    id belonging to the winner
+     */
+    public static void putWin(ByteBuffer out, int id) {
+        if (inTable(id, TABLE_IDS)) {
+            out.put(WIN_FRAMES[id]);
+        } else {
+            out.put(WIN).put((byte) id);
+        }
+    }
+    /**
+     * Encodes a frame that updates the whole game state.
+     * @param out       the buffer to write to
+     * @param heaps     the amount of markers in each heap
+     * @param turn      id of the player who is taking their turn
+     * @param scores    each player's score
+     * @param winner    id belonging to the winner, or -1 if the game is not
+     *                  over
+     */
+    public static void putState(ByteBuffer out, int[] heaps, int turn,
+            int[] scores, int winner) {
+        out.put(STATE);
+        putList(out, heaps);
+        out.put((byte) turn);
+        putList(out, scores);
+        out.put((byte) winner);
+    }
+    /**
+     * Encodes a quit frame. The same frame is used in both directions.
+     * @param out   the buffer to write to
+     */
+    public static void putQuit(ByteBuffer out) {
+        out.put(QUIT_FRAME);
+    }
+    // encode messages from client to server
+    /**
+     * Encodes a frame that asks to join a game session.
+     * @param out   the buffer to write to
+     * @param name  the player's name
+     * @throws UTFDataFormatException   Thrown if the name is too long
+     */
+    public static void putJoin(ByteBuffer out, String name)
+            throws UTFDataFormatException {
+        out.put(JOIN);
+        putUTF(out, name);
+    }
+    /**
+     * Encodes a frame that asks to join a game session for a given number of
+     * players. The number follows the name, so a server that does not know it
+     * reads a plain join.
+     * @param out       the buffer to write to
+     * @param name      the player's name
+     * @param players   the number of players, or 0 for the server's default
+     * @throws UTFDataFormatException   Thrown if the name is too long
+     */
+    public static void putJoin(ByteBuffer out, String name, int players)
+            throws UTFDataFormatException {
+        putJoin(out, name);
+        if (players > 0) {
+            out.put((byte) players);
+        }
+    }
+    /**
+     * Encodes a frame that asks to join a game session for a given number of
+     * players in a given mode. The mode follows the number of players.
+     * @param out       the buffer to write to
+     * @param name      the player's name
+     * @param players   the number of players, or 0 for the server's default
+     * @param mode      WITH_PLAYERS or WITH_BOTS
+     * @throws UTFDataFormatException   Thrown if the name is too long
+     */
+    public static void putJoin(ByteBuffer out, String name, int players,
+            byte mode) throws UTFDataFormatException {
+        if (mode == WITH_PLAYERS) {
+            putJoin(out, name, players);
+        } else {
+            putJoin(out, name);
+            out.put((byte) players).put(mode);
+        }
+    }
+    /**
+     * Encodes a frame that tells the server what move the player made.
+     * @param out       the buffer to write to
+     * @param heapId    id of heap from which markers were taken
+     * @param markers   how many markers were taken
+     */
+    public static void putTake(ByteBuffer out, int heapId, int markers) {
+        if (inTable(heapId, TABLE_IDS) && inTable(markers, TABLE_MARKERS)) {
+            out.put(TAKE_FRAMES[heapId][markers]);
+        } else {
+            out.put(TAKE);
+            putVarint(out, heapId);
+            putVarint(out, markers);
+        }
+    }
+    /**
+     * Encodes a frame that tells the server what move the player made, as the
+     * markers taken from each heap. A move on a single heap is encoded as a
+     * take frame, and only a move on several heaps as a multi-take frame.
+     * @param out   the buffer to write to
+     * @param takes the markers taken from each heap
+     */
+    public static void putTakes(ByteBuffer out, int[] takes) {
+        int heapId = NimRules.single(takes);
+        if (heapId >= 0) {
+            putTake(out, heapId, takes[heapId]);
+        } else {
+            out.put(MULTI_TAKE);
+            putList(out, takes);
+        }
+    }
+    /**
+     * Encodes a frame that asks for a new game.
+     * @param out   the buffer to write to
+     */
+    public static void putNewGame(ByteBuffer out) {
+        out.put(NEW_GAME_FRAME);
+    }
+    /**
+     * Encodes a frame that asks to watch a game session as a spectator.
+     * @param out   the buffer to write to
+     * @param name  the name of a player in the game, or an empty name for
+     *              any game
+     * @throws UTFDataFormatException   Thrown if the name is too long
+     */
+    public static void putWatch(ByteBuffer out, String name)
+            throws UTFDataFormatException {
+        out.put(WATCH);
+        putUTF(out, name);
+    }
+    /**
+     * Encodes a heartbeat frame, which tells the server the client is alive.
+     * @param out   the buffer to write to
+     */
+    public static void putHeartbeat(ByteBuffer out) {
+        out.put(HEARTBEAT_FRAME);
+    }
+    // strings
+    /**
+     * Encodes a string the way DataOutput.writeUTF does, without allocating.
+     * Strings are limited to MAX_NAME bytes so that every frame carrying a
+     * name fits in MAX_FRAME.
+     * @param out   the buffer to write to
+     * @param s     the string
+     * @throws UTFDataFormatException   Thrown if the encoded string is longer
+     *                                  than MAX_NAME bytes
+     */
+    public static void putUTF(ByteBuffer out, String s)
+            throws UTFDataFormatException {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            length += c >= 0x01 && c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+        }
+        if (length > MAX_NAME) {
+            throw new UTFDataFormatException("Name too long");
+        }
+        out.putShort((short) length);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x01 && c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+    /**
+     * Decodes a string written by DataOutput.writeUTF directly from a buffer.
+     * @param in    the buffer positioned at the string's length prefix
+     * @return  the decoded string
+     * @throws UTFDataFormatException   Thrown if the bytes are not valid
+     *                                  modified UTF-8 or longer than MAX_NAME
+     */
+    public static String getUTF(ByteBuffer in) throws UTFDataFormatException {
+        int length = in.getShort() & 0xFFFF;
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        if (length > MAX_NAME) {
+            throw new UTFDataFormatException("Name too long");
+        }
+        char[] chars = new char[length];
+        int count = 0;
+        int end = in.position() + length;
+        while (in.position() < end) {
+            int c = in.get() & 0xFF;
+            if (c < 0x80) {
+                chars[count++] = (char) c;
+            } else if ((c & 0xE0) == 0xC0 && in.position() < end) {
+                chars[count++] = (char) (((c & 0x1F) << 6)
+                        | (in.get() & 0x3F));
+            } else if ((c & 0xF0) == 0xE0 && in.position() + 1 < end) {
+                chars[count++] = (char) (((c & 0x0F) << 12)
+                        | ((in.get() & 0x3F) << 6) | (in.get() & 0x3F));
+            } else {
+                throw new UTFDataFormatException("Malformed name");
+            }
+        }
+        return new String(chars, 0, count);
+    }
+    // varints
+    /**
+     * Encodes an integer as a varint. Negative values take five bytes.
+     * @param out   the buffer to write to
+     * @param value the value
+     */
+    public static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) (value | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+    /**
+     * Decodes a varint. A varint ends at its fifth byte at the latest.
+     * @param in    the buffer positioned at the varint
+     * @return  the value
+     */
+    public static int getVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        return value;
+    }
+    /**
+     * Encodes a list of integers, such as the heaps or the scores of a state
+     * frame, as varints after the list's length.
+     * @param out       the buffer to write to
+     * @param values    the values
+     */
+    public static void putList(ByteBuffer out, int[] values) {
+        putVarint(out, values.length);
+        for (int value : values) {
+            putVarint(out, value);
+        }
+    }
+    /**
+     * Decodes a list of integers written by putList. The given array is reused
+     * when it has the right length.
+     * @param in        the buffer positioned at the list's length
+     * @param reuse     an array to decode into, may be null
+     * @return  the decoded values
+     */
+    public static int[] getList(ByteBuffer in, int[] reuse) {
+        int length = getVarint(in);
+        // every value takes at least a byte
+        if (length < 0 || length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        int[] values = reuse != null && reuse.length == length ?
+                reuse : new int[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = getVarint(in);
+        }
+        return values;
+    }
+}
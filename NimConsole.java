@@ -0,0 +1,258 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+/**
+ * The NimConsole class is a user interface for a terminal. It prints the game
+ * whenever it changes and reads commands from an input stream, one per line,
+ * so a client runs without a display and can be driven by a script. It uses
+ * no AWT or Swing class.
+ * <P>
+ * The commands are <I>heap</I> <I>markers</I>, which takes markers from a
+ * heap, with heaps numbered from 0, new, which starts a new game, and quit.
+ * A move waits for the player's turn, so a script may list its moves ahead.
+ * The end of the input quits once the last move has been answered.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public class NimConsole implements ModelListener {
+    /** How long a move waits for the server's answer, in ms; the server
+     *  ignores moves that are not legal without an answer. */
+    static final long ANSWER_TIME = 2000;
+    private PrintStream out;
+    private ViewListener viewListener;
+    // the game as last heard from the server; guarded by this console
+    private int id = -1;
+    private boolean spectator;
+    private String[] names = new String[NimModel.MAX_PLAYERS];
+    private int[] scores = new int[NimModel.MAX_PLAYERS];
+    private int[] heaps = new int[0];
+    private boolean myTurn;
+    private long answerBy;
+    private boolean closed;
+    /**
+     * Constructor.
+     * @param out   the stream the game is printed to
+     */
+    public NimConsole(PrintStream out) {
+        this.out = out;
+    }
+    /**
+     * This method sets the console's view listener.
+     * @param viewListener  The view listener that the commands will go through
+     */
+    public synchronized void setViewListener(ViewListener viewListener) {
+        this.viewListener = viewListener;
+    }
+    /**
+     * Reads commands until the input ends or the player quits, then quits.
+     * @param in    the stream the commands are read from
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public void run(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] words = line.trim().split("\\s+");
+            if (words[0].isEmpty()) {
+                continue;
+            }
+            if (words[0].equals("quit")) {
+                break;
+            } else if (words[0].equals("new") && words.length == 1) {
+                viewListener.newGame();
+            } else if (words.length == 2 && words[0].matches("\\d{1,5}")
+                    && words[1].matches("\\d{1,5}")) {
+                take(Integer.parseInt(words[0]),
+                        Integer.parseInt(words[1]));
+            } else {
+                out.println("Commands: <heap> <markers>, new, quit");
+            }
+        }
+        awaitAnswer();
+        synchronized (this) {
+            closed = true;
+        }
+        viewListener.quit();
+        System.exit(0);
+    }
+    /**
+     * Makes a move once it is the player's turn.
+     * @param heapId    id of heap from which markers are taken
+     * @param markers   how many markers are taken
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    private void take(int heapId, int markers) throws IOException {
+        synchronized (this) {
+            if (spectator) {
+                out.println("Spectators cannot move");
+                return;
+            }
+            if (!awaitTurn()) {
+                return;
+            }
+            answerBy = TimerWheel.now() + ANSWER_TIME;
+        }
+        viewListener.take(heapId, markers);
+    }
+    /**
+     * Waits until it is the player's turn and the last move was answered or
+     * ignored.
+     * @return  true if it is the player's turn, false if the game ended
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    private synchronized boolean awaitTurn() throws IOException {
+        awaitAnswer();
+        try {
+            while (!closed && !myTurn) {
+                wait();
+            }
+        } catch (InterruptedException exc) {
+            throw new IOException(exc);
+        }
+        return !closed;
+    }
+    /**
+     * Waits until the last move was answered, or until the server has had
+     * its time to answer it.
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    private synchronized void awaitAnswer() throws IOException {
+        try {
+            while(true) {
+                long left = answerBy - TimerWheel.now();
+                if (closed || left <= 0) {
+                    break;
+                }
+                wait(left);
+            }
+        } catch (InterruptedException exc) {
+            throw new IOException(exc);
+        }
+        answerBy = 0;
+    }
+    // implement ModelListener
+    /**
+     * This method sets the player's id.
+     * @param id    the player's id, -1 for a spectator
+     */
+    public synchronized void id(int id) {
+        this.id = id;
+        spectator = id < 0;
+        out.println(spectator ? "Watching" : "You are player " + id
+                + ", waiting for the other players");
+    }
+    /**
+     * This method sets a player's name. Scores start at 0.
+     * @param id    the player to whom this name belongs
+     * @param name  the player's name
+     */
+    public synchronized void name(int id, String name) {
+        if (name.equals(names[id])) {
+            return;
+        }
+        names[id] = name;
+        scores[id] = 0;
+        out.println("Player " + id + " is " + name);
+    }
+    /**
+     * This method sets a player's score.
+     * @param id    the player to whom this score belongs
+     * @param score the player's score
+     */
+    public synchronized void score(int id, int score) {
+        scores[id] = score;
+    }
+    /**
+     * This method updates the state of a heap.
+     * @param heapId    the id of the heap
+     * @param markers   the amount of markers in the heap
+     */
+    public synchronized void heap(int heapId, int markers) {
+        if (heapId >= heaps.length) {
+            int[] grown = new int[heapId + 1];
+            System.arraycopy(heaps, 0, grown, 0, heaps.length);
+            heaps = grown;
+        }
+        heaps[heapId] = markers;
+    }
+    /**
+     * This method prints the board and whose turn it is.
+     * @param id    id of the player who is taking their turn
+     */
+    public synchronized void turn(int id) {
+        myTurn = id == this.id;
+        answered();
+        out.println(board() + (myTurn ? "your turn"
+                : names[id] + "'s turn"));
+    }
+    /**
+     * This method prints the board and the game's winner.
+     * @param id    id belonging to the winner
+     */
+    public synchronized void win(int id) {
+        myTurn = false;
+        answered();
+        out.println(board() + (id == this.id ? "you win!"
+                : names[id] + " wins!"));
+    }
+    /**
+     * This method updates the whole game and prints it once.
+     * @param heaps     the amount of markers in each heap
+     * @param turn      id of the player who is taking their turn
+     * @param scores    each player's score
+     * @param winner    id belonging to the winner, or -1 if the game is not
+     *                  over
+     */
+    public synchronized void state(int[] heaps, int turn, int[] scores,
+            int winner) {
+        this.heaps = heaps.clone();
+        System.arraycopy(scores, 0, this.scores, 0, scores.length);
+        if (winner >= 0) {
+            win(winner);
+        } else {
+            turn(turn);
+        }
+    }
+    /**
+     * This method is called when another player quit, which ends the game.
+     * Once this player has quit it does nothing.
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public void quit() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        out.println("A player quit, the game is over");
+        viewListener.quit();
+        System.exit(0);
+    }
+    /**
+     * Wakes the commands that wait for the server's answer.
+     */
+    private void answered() {
+        answerBy = 0;
+        notifyAll();
+    }
+    /**
+     * Describes the heaps and the scores.
+     * @return  the text, ending where the turn or the winner goes
+     */
+    private String board() {
+        StringBuilder text = new StringBuilder("Heaps");
+        for (int markers : heaps) {
+            text.append(' ').append(markers);
+        }
+        text.append(" |");
+        for (int i = 0; i < names.length && names[i] != null; i++) {
+            text.append(' ').append(names[i]).append(' ').append(scores[i]);
+        }
+        return text.append(" | ").toString();
+    }
+}
@@ -0,0 +1,278 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+/**
+ * NimLoad is a headless load generator for NimServer. It simulates many
+ * players, each with its own socket and NimModelProxy, so the server sees the
+ * same traffic as from real clients. The players are paired into games by the
+ * server, make random or optimal moves as soon as it is their turn, play a
+ * few games per session and then quit and join again.
+ * Usage: java NimLoad <I>serverhost</I> <I>serverport</I> <I>clienthost</I>
+ * <I>players</I> <I>seconds</I> [optimal] [reliable]
+ * <P>
+ * Every second it reports the moves per second and the percentiles of the
+ * move latency, measured from sending a take to receiving the state update
+ * it caused. A move or join without an answer within LOST_TIMEOUT counts as
+ * lost, and its player quits and joins again.
+ * <P>
+ * The players play by the rules named by the system property nim.rules, which
+ * must match the server's.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public class NimLoad {
+    private static final long LOST_TIMEOUT = 2000000000L;
+    private static final int MAX_GAMES = 5;
+
+    private static InetSocketAddress server;
+    private static String clienthost;
+    private static boolean optimal;
+    private static boolean reliable;
+    private static NimRules rules;
+    private static AtomicReferenceArray<Bot> bots;
+    private static volatile boolean stopping;
+    private static LongAdder moves = new LongAdder();
+    private static LongAdder games = new LongAdder();
+    private static LongAdder joins = new LongAdder();
+    private static LongAdder lost = new LongAdder();
+    private static LatencyHistogram total = new LatencyHistogram();
+    private static volatile LatencyHistogram interval = new LatencyHistogram();
+    /**
+     * Main program. Starts the players and reports until the time is up.
+     * @param args          Command line arguments. Specified by usage above.
+     * @throws Exception    Thrown if initialization fails at some point
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 5 || args.length > 7) {
+            usage();
+        }
+        server = new InetSocketAddress(args[0], Integer.parseInt(args[1]));
+        clienthost = args[2];
+        int players = Integer.parseInt(args[3]);
+        int seconds = Integer.parseInt(args[4]);
+        for (int i = 5; i < args.length; i++) {
+            if (args[i].equals("optimal")) {
+                optimal = true;
+            } else if (args[i].equals("reliable")) {
+                reliable = true;
+            } else {
+                usage();
+            }
+        }
+        if (players < 2 || seconds < 1) {
+            usage();
+        }
+        rules = NimRules.forName(System.getProperty("nim.rules", "normal"));
+
+        bots = new AtomicReferenceArray<Bot>(players);
+        long start = System.nanoTime();
+        for (int i = 0; i < players; i++) {
+            new Bot(i);
+            // spread the joins so the first second is not one burst
+            if (i % 100 == 99) {
+                Thread.sleep(10);
+            }
+        }
+        long lastMoves = 0;
+        for (int s = 1; s <= seconds; s++) {
+            long deadline = start + s * 1000000000L;
+            while (System.nanoTime() < deadline) {
+                Thread.sleep(100);
+                long now = System.nanoTime();
+                for (int i = 0; i < players; i++) {
+                    Bot bot = bots.get(i);
+                    if (bot.isLost(now) && bot.close()) {
+                        lost.increment();
+                        new Bot(i);
+                    }
+                }
+            }
+            LatencyHistogram latency = interval;
+            interval = new LatencyHistogram();
+            long currentMoves = moves.sum();
+            System.out.printf("%4ds %8d moves/s  p50 %6dus  p99 %6dus  "
+                    + "p99.9 %6dus  games %d  lost %d%n", s,
+                    currentMoves - lastMoves, latency.percentile(0.5),
+                    latency.percentile(0.99), latency.percentile(0.999),
+                    games.sum(), lost.sum());
+            lastMoves = currentMoves;
+        }
+        stopping = true;
+        for (int i = 0; i < players; i++) {
+            bots.get(i).close();
+        }
+        long sent = moves.sum() + lost.sum();
+        System.out.printf("total %d moves, %.1f moves/s, p50 %dus, p99 %dus, "
+                + "p99.9 %dus, %d games, %d joins, %d lost (%.3f%%)%n",
+                moves.sum(), moves.sum() / (double) seconds,
+                total.percentile(0.5), total.percentile(0.99),
+                total.percentile(0.999), games.sum(), joins.sum(), lost.sum(),
+                sent == 0 ? 0.0 : 100.0 * lost.sum() / sent);
+        System.exit(0);
+    }
+    /**
+     * Chooses a move. An optimal move is the winning move by the rules if
+     * there is one; otherwise a random legal move is made.
+     * @param heaps the amount of markers in each heap, not all terminal
+     * @param takes filled with the markers the move takes from each heap
+     */
+    private static void chooseMove(int[] heaps, int[] takes) {
+        if (optimal && rules.winningMove(heaps, takes)) {
+            return;
+        }
+        rules.randomMove(heaps, takes, ThreadLocalRandom.current());
+    }
+    /**
+     * The usage method checks to make sure the program's arguments are
+     * supplied correctly.
+     */
+    private static void usage() {
+        System.err.println("Usage: java NimLoad <serverhost> <serverport> "
+                + "<clienthost> <players> <seconds> [optimal] [reliable]");
+        System.err.println("<serverhost> is the server's host name or IP address.");
+        System.err.println("<serverport> is the port number of the server.");
+        System.err.println("<clienthost> is the players' host name or IP address.");
+        System.err.println("<players> is the number of simulated players, at "
+                + "least 2.");
+        System.err.println("<seconds> is how long to run.");
+        System.err.println("optimal plays optimal moves instead of random "
+                + "ones.");
+        System.err.println("reliable retransmits lost messages.");
+        System.exit(0);
+    }
+    /**
+     * A Bot is one simulated player on one connection. A player who joins
+     * again does so on a new connection, as a new bot in the same slot.
+     */
+    private static class Bot implements ModelListener {
+        private int index;
+        private DatagramChannel mailbox;
+        private NimModelProxy proxy;
+        private int id = -1;
+        private int gamesLeft;
+        private int[] takes;
+        private boolean closed;
+        private volatile long joinedAt;
+        private volatile long movedAt;
+        /**
+         * Constructor. Opens a connection, takes over the player's slot and
+         * joins a session.
+         * @param index the player's slot
+         * @throws IOException  Thrown when I/O fails or is interrupted
+         */
+        public Bot(int index) throws IOException {
+            this.index = index;
+            this.gamesLeft = 1 + ThreadLocalRandom.current().nextInt(MAX_GAMES);
+            mailbox = DatagramChannel.open().bind(
+                    new InetSocketAddress(clienthost, 0));
+            proxy = new NimModelProxy(mailbox, server, reliable);
+            proxy.setModelListener(this);
+            bots.set(index, this);
+            joinedAt = System.nanoTime();
+            proxy.join(null, "bot" + index);
+            joins.increment();
+        }
+        /**
+         * Checks whether this bot's join or move went unanswered.
+         * @param now   the current time in nanoseconds
+         * @return  true if the bot has waited too long
+         */
+        public boolean isLost(long now) {
+            long joined = joinedAt;
+            long moved = movedAt;
+            return (joined != 0 && now - joined > LOST_TIMEOUT)
+                    || (moved != 0 && now - moved > LOST_TIMEOUT);
+        }
+        /**
+         * Quits the session and closes the connection.
+         * @return  true if this call closed the connection, false if it was
+         *          already closed
+         * @throws IOException  Thrown when I/O fails or is interrupted
+         */
+        public synchronized boolean close() throws IOException {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            joinedAt = 0;
+            movedAt = 0;
+            proxy.quit();
+            mailbox.close();
+            return true;
+        }
+        public synchronized void id(int id) {
+            this.id = id;
+            joinedAt = 0;
+        }
+        public void name(int id, String name) {}
+        public void score(int id, int score) {}
+        public void heap(int heapId, int markers) {}
+        public void turn(int id) {}
+        public void win(int id) {}
+        /**
+         * Records the latency of this bot's last move, then moves if it is
+         * this bot's turn, or starts the next game or quits if the game is
+         * over.
+         * @param heaps     the amount of markers in each heap
+         * @param turn      id of the player who is taking their turn
+         * @param scores    each player's score
+         * @param winner    id belonging to the winner, or -1 if the game is not
+         *                  over
+         * @throws IOException  Thrown when I/O fails or is interrupted
+         */
+        public synchronized void state(int[] heaps, int turn, int[] scores,
+                int winner) throws IOException {
+            if (closed) {
+                return;
+            }
+            long moved = movedAt;
+            if (moved != 0) {
+                long micros = (System.nanoTime() - moved) / 1000;
+                interval.record(micros);
+                total.record(micros);
+                moves.increment();
+                movedAt = 0;
+            }
+            if (winner >= 0) {
+                // only the first player decides what happens next
+                if (id == 0) {
+                    games.increment();
+                    if (--gamesLeft > 0) {
+                        proxy.newGame();
+                    } else if (close()) {
+                        rejoin();
+                    }
+                }
+            } else if (turn == id) {
+                if (takes == null || takes.length != heaps.length) {
+                    takes = new int[heaps.length];
+                }
+                chooseMove(heaps, takes);
+                movedAt = System.nanoTime();
+                proxy.take(takes);
+            }
+        }
+        /**
+         * The other player quit, so this bot joins again.
+         * @throws IOException  Thrown when I/O fails or is interrupted
+         */
+        public void quit() throws IOException {
+            if (close()) {
+                rejoin();
+            }
+        }
+        /**
+         * Joins again on a new connection unless the run is over.
+         * @throws IOException  Thrown when I/O fails or is interrupted
+         */
+        private void rejoin() throws IOException {
+            if (!stopping) {
+                new Bot(index);
+            }
+        }
+    }
+}
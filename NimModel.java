@@ -1,46 +1,226 @@
 import java.io.IOException;
-import java.util.ArrayList;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
 /**
  * NimModel is the model for each game session. It handles the game logic for
  * Nim.
+ * <P>
+ * A session is for a fixed number of players, two by default and at most
+ * MAX_PLAYERS. Its updates go to a compact array of the seated players'
+ * listeners. The players take turns in an order that is fixed for each game:
+ * in seat order, in seat order starting with the next player every game, or
+ * shuffled every game.
+ * <P>
+ * The heaps and the rules are chosen when the session is created, three heaps
+ * of three, four and five markers and normal play by default. The session
+ * keeps count of the heaps that still have a move, so a move checks for the
+ * end of the game without looking at the other heaps.
+ * <P>
+ * Besides its players, a session may have any number of spectators, who get
+ * the same updates through the session's audience but cannot move.
  * 
  * @author  Pavel Rozvora (pxr8306)
  * @version 2015-12-08
  */
 public class NimModel implements ViewListener {
+    /** The most players a session holds. */
+    public static final int MAX_PLAYERS = ResultsLog.MAX_PLAYERS;
+    /** Every game is played in seat order, starting with the first seat. */
+    public static final int SEATED = 0;
+    /** Every game is played in seat order, starting one seat further. */
+    public static final int ROTATE = 1;
+    /** Every game is played in a new random order. */
+    public static final int RANDOM = 2;
+    /** The most heaps a session plays with. */
+    public static final int MAX_HEAPS = ResultsLog.MAX_HEAPS;
+    /** The most markers a heap starts with, as many as the results log keeps. */
+    public static final int MAX_MARKERS = 0xFFFF;
+    private static final int[] HEAPS = {3, 4, 5};
     SessionManager manager;
-    private ArrayList<ModelListener> listenerList = new ArrayList<ModelListener>();
-    private int[] heap = {3, 4, 5};
-    private int[] score = {0, 0};
+    TaskQueue owner;
+    volatile SessionManager.Waiter waiter;
+    long id;
+    private boolean closed;
+    private ModelListener[] listeners;
+    private int seated;
+    private int[] order;
+    private int orderMode;
+    private int position;
+    private int[] start;
+    private int[] heap;
+    private int live;
+    private NimRules rules;
+    private int[] score;
     private int turn = 0;
-    private String[] names = {"", ""};
+    private int winner = -1;
+    private Audience audience;
+    private String[] names;
+    private long gameStarted;
+    /**
+     * Constructor. Constructs a session for two players who take turns in
+     * seat order.
+     */
+    public NimModel() {
+        this(2, SEATED);
+    }
+    /**
+     * Constructor. Constructs a session with the default heaps.
+     * @param players   the number of players, 2 to MAX_PLAYERS
+     * @param orderMode the turn order, SEATED, ROTATE or RANDOM
+     */
+    public NimModel(int players, int orderMode) {
+        this(players, orderMode, HEAPS, NimRules.NORMAL);
+    }
+    /**
+     * Constructor. Constructs a session that plays normal Nim.
+     * @param players   the number of players, 2 to MAX_PLAYERS
+     * @param orderMode the turn order, SEATED, ROTATE or RANDOM
+     * @param heaps     the amount of markers each heap starts with, copied
+     */
+    public NimModel(int players, int orderMode, int[] heaps) {
+        this(players, orderMode, heaps, NimRules.NORMAL);
+    }
+    /**
+     * Constructor.
+     * @param players   the number of players, 2 to MAX_PLAYERS
+     * @param orderMode the turn order, SEATED, ROTATE or RANDOM
+     * @param heaps     the amount of markers each heap starts with, copied,
+     *                  or null for the default heaps
+     * @param rules     the rules the session plays by
+     */
+    public NimModel(int players, int orderMode, int[] heaps, NimRules rules) {
+        if (heaps == null) {
+            heaps = HEAPS;
+        }
+        if (players < 2 || players > MAX_PLAYERS) {
+            throw new IllegalArgumentException("Bad number of players");
+        }
+        if (!validHeaps(heaps) || !rules.playable(heaps)) {
+            throw new IllegalArgumentException("Bad heaps");
+        }
+        this.rules = rules;
+        this.start = heaps.clone();
+        this.heap = heaps.clone();
+        this.live = live(heaps);
+        this.listeners = new ModelListener[players];
+        this.score = new int[players];
+        this.names = new String[players];
+        Arrays.fill(names, "");
+        this.order = new int[players];
+        for (int i = 0; i < players; i++) {
+            order[i] = i;
+        }
+        this.orderMode = orderMode;
+    }
+    /**
+     * Returns the number of free seats.
+     * @return  the number of players who have yet to join
+     */
+    int open() {
+        return listeners.length - seated;
+    }
+    /**
+     * Returns the number of players this session is for.
+     * @return  the number of players
+     */
+    public int players() {
+        return listeners.length;
+    }
+    /**
+     * Checks whether a session can play with the given heaps: 1 to MAX_HEAPS
+     * heaps of 1 to MAX_MARKERS markers.
+     * @param heaps the amount of markers each heap starts with
+     * @return  true if the heaps are allowed
+     */
+    static boolean validHeaps(int[] heaps) {
+        if (heaps == null || heaps.length < 1 || heaps.length > MAX_HEAPS) {
+            return false;
+        }
+        for (int markers : heaps) {
+            if (markers < 1 || markers > MAX_MARKERS) {
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * Returns the rules this session plays by.
+     * @return  the rules
+     */
+    NimRules rules() {
+        return rules;
+    }
+    /**
+     * Counts the heaps that still have a move.
+     * @param heaps the amount of markers in each heap
+     * @return  the number of heaps that are not terminal
+     */
+    private int live(int[] heaps) {
+        int live = 0;
+        for (int markers : heaps) {
+            if (!rules.terminal(markers)) {
+                live++;
+            }
+        }
+        return live;
+    }
     /**
      * Adds a model listener for each player who joins
      * @param modelListener The model listener that messages will go through
      */
     public void addModelListener(ModelListener modelListener) {
-        listenerList.add(modelListener);
+        listeners[seated++] = modelListener;
     }
     /**
      * The join method sends the players name and a model listener to the
-     * server in order to be placed in a game session.
+     * server in order to be placed in a game session. The game starts when
+     * the last seat is taken.
      * @param proxy A reference to the view proxy object for the client
      * @param name  The player's name
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
     public void join(NimViewProxy proxy, String name) throws IOException {
-        if (listenerList.size() == 1) {
-            names[0] = name;
-            listenerList.get(0).id(0);
-            listenerList.get(0).name(0, name);
-            listenerList.get(0).score(0, 0);
+        join(proxy.clientAddress(), name);
+    }
+    /**
+     * Seats a bot, which joins like a player without an address.
+     * @param bot   the bot
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    void join(NimBot bot) throws IOException {
+        addModelListener(bot);
+        join((SocketAddress) null, NimBot.NAME);
+    }
+    /**
+     * Seats the player whose listener was added last.
+     * @param address   the player's address, or null for a bot
+     * @param name      the player's name
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    private void join(SocketAddress address, String name) throws IOException {
+        int seat = seated - 1;
+        SessionJournal journal = manager.journal();
+        if (journal != null) {
+            journal.join(id, seat, listeners.length, start, rules, address,
+                    name);
+        }
+        names[seat] = name;
+        listeners[seat].id(seat);
+        if (seated < listeners.length) {
+            // tell the waiting players about each other
+            for (int i = 0; i < seat; i++) {
+                listeners[seat].name(i, names[i]);
+                listeners[i].name(seat, name);
+            }
+            listeners[seat].name(seat, name);
+            listeners[seat].score(seat, 0);
         } else {
-            names[1] = name;
-            listenerList.get(1).id(1);
-            sendHeapStatus();
+            gameStarted = TimerWheel.now();
+            manager.started(this, names);
             sendNames();
-            sendScore();
-            sendTurn();
+            sendState(-1);
+            record(-1);
         }
     }
     /**
@@ -50,97 +230,296 @@ public class NimModel implements ViewListener {
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
     public void take(int heapId, int markers) throws IOException {
+        // ignore moves before the session is full and moves that are not legal
+        if (seated < listeners.length
+                || !rules.legal(heap, heapId, markers)) {
+            return;
+        }
+        remove(heapId, markers);
+        moved();
+    }
+    /**
+     * This method tells the server what move the player made, as the markers
+     * taken from each heap. Only the rules decide whether a move may take
+     * from several heaps.
+     * @param takes the markers taken from each heap
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public void take(int[] takes) throws IOException {
+        if (seated < listeners.length || takes.length != heap.length
+                || !rules.legal(heap, takes)) {
+            return;
+        }
+        for (int h = 0; h < takes.length; h++) {
+            if (takes[h] > 0) {
+                remove(h, takes[h]);
+            }
+        }
+        moved();
+    }
+    /**
+     * Takes markers from a heap that had a move.
+     * @param heapId    id of heap from which markers were taken
+     * @param markers   how many markers were taken
+     */
+    private void remove(int heapId, int markers) {
         heap[heapId] -= markers;
-        if (heap[0] == 0 && heap[1] == 0 && heap[2] == 0) {
-            sendWin();
-            score[turn] += 1;
-            sendScore();
-            sendHeapStatus();
-            turn = 0;
+        if (rules.terminal(heap[heapId])) {
+            live--;
+        }
+    }
+    /**
+     * Ends the game if no heap has a move left and passes the turn otherwise.
+     * Under misere rules the player who made the last move loses, and the
+     * next player wins.
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    private void moved() throws IOException {
+        if (live == 0) {
+            winner = rules.lastMoverWins() ? turn
+                    : order[(position + 1) % order.length];
+            score[winner] += 1;
+            position = 0;
+            turn = order[0];
+            sendState(winner);
+            record(winner);
+            ResultsLog results = manager.results();
+            if (results != null) {
+                results.append(names, listeners.length, winner, start,
+                        TimerWheel.now() - gameStarted);
+            }
         } else {
-            turn++;
-            turn = turn % 2;
-            sendHeapStatus();
-            sendTurn();
+            position++;
+            position = position % order.length;
+            turn = order[position];
+            sendState(-1);
+            record(-1);
         }
     }
     /**
      * This method informs the server that a player would like to start a new
-     * game.
+     * game. The new game gets its turn order.
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
     public void newGame() throws IOException {
-        heap[0] = 3;
-        heap[1] = 4;
-        heap[2] = 5;
-        turn = 0;
-        sendHeapStatus();
-        sendTurn();
-        
+        System.arraycopy(start, 0, heap, 0, heap.length);
+        live = live(start);
+        nextOrder();
+        position = 0;
+        turn = order[0];
+        winner = -1;
+        gameStarted = TimerWheel.now();
+        sendState(-1);
+        record(-1);
+    }
+    /**
+     * Sets the turn order of the next game.
+     */
+    private void nextOrder() {
+        switch (orderMode) {
+        case ROTATE:
+            int first = (order[0] + 1) % order.length;
+            for (int i = 0; i < order.length; i++) {
+                order[i] = (first + i) % order.length;
+            }
+            break;
+        case RANDOM:
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = order.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+            break;
+        default:
+            break;
+        }
     }
     /**
      * This method informs the server that a player has terminated the program.
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
     public void quit() throws IOException {
+        if (!closed) {
+            closed = true;
+            manager.metrics().sessionClosed();
+            if (seated == listeners.length) {
+                manager.ended(this, names);
+            }
+            if (manager.journal() != null) {
+                manager.journal().quit(id);
+            }
+        }
         sendQuit();
     }
     /**
-     * This method communicates the heap status to the players.
+     * Checks whether a player has quit this session.
+     * @return  true if the session has ended
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+    /**
+     * Restores a session from the journal of a previous run, with the turn
+     * order of its game, and sends each player their id, the names and the
+     * state of the game.
+     * @param saved     the session's journaled state
+     * @param players   a listener for each seated player, in seat order
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
-    private void sendHeapStatus() throws IOException {
-        for (int i = 0; i <= 2; i++) {
-            listenerList.get(0).heap(i, heap[i]);
-            listenerList.get(1).heap(i, heap[i]);
+    void restore(SessionJournal.Saved saved, ModelListener[] players)
+            throws IOException {
+        id = saved.id;
+        for (int i = 0; i < players.length; i++) {
+            addModelListener(players[i]);
+            names[i] = saved.names[i];
+        }
+        if (saved.heaps != null && saved.heaps.length == heap.length
+                && saved.scores.length == score.length) {
+            System.arraycopy(saved.heaps, 0, heap, 0, heap.length);
+            System.arraycopy(saved.scores, 0, score, 0, score.length);
+            live = live(heap);
+            turn = saved.turn;
+            position = saved.turn;
+            if (isOrder(saved.order) && saved.position >= 0
+                    && saved.position < order.length) {
+                System.arraycopy(saved.order, 0, order, 0, order.length);
+                position = saved.position;
+            }
+            winner = saved.winner;
+        }
+        gameStarted = TimerWheel.now();
+        for (int i = 0; i < seated; i++) {
+            listeners[i].id(i);
+        }
+        if (seated < listeners.length) {
+            for (int i = 0; i < seated; i++) {
+                for (int j = 0; j < seated; j++) {
+                    listeners[i].name(j, names[j]);
+                }
+                listeners[i].score(i, score[i]);
+            }
+        } else {
+            manager.started(this, names);
+            sendNames();
+            sendState(winner);
         }
     }
     /**
-     * This method communicates whose turn it is to the players.
-     * @throws IOException  Thrown when I/O fails or is interrupted
+     * Checks whether a journaled turn order holds every seat of this session
+     * once.
+     * @param saved the journaled order, or null if none was journaled
+     * @return  true if the order can be restored
      */
-    private void sendTurn() throws IOException {
-        listenerList.get(0).turn(turn);
-        listenerList.get(1).turn(turn);
+    private boolean isOrder(int[] saved) {
+        if (saved == null || saved.length != order.length) {
+            return false;
+        }
+        boolean[] seen = new boolean[order.length];
+        for (int seat : saved) {
+            if (seat < 0 || seat >= seen.length || seen[seat]) {
+                return false;
+            }
+            seen[seat] = true;
+        }
+        return true;
     }
     /**
-     * This method communicates the winner to the players.
+     * Adds a spectator and sends them the names and the state of the game.
+     * A spectator's id is -1, which is never anyone's turn.
+     * @param proxy A reference to the view proxy object for the spectator
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
-    private void sendWin() throws IOException {
-        listenerList.get(0).win(turn);
-        listenerList.get(1).win(turn);
+    void watch(NimViewProxy proxy) throws IOException {
+        if (audience == null) {
+            audience = new Audience(proxy.manager.outbox(),
+                    manager.metrics());
+        }
+        proxy.id(-1);
+        for (int i = 0; i < seated; i++) {
+            proxy.name(i, names[i]);
+        }
+        proxy.state(heap, turn, score, winner);
+        audience.add(proxy.clientAddress());
+    }
+    /**
+     * Returns the view listener for a spectator's messages. Spectators cannot
+     * move; a spectator who quits leaves the audience.
+     * @param proxy A reference to the view proxy object for the spectator
+     * @return  the spectator's view listener
+     */
+    ViewListener spectator(final NimViewProxy proxy) {
+        return new ViewListener() {
+            public void join(NimViewProxy viewer, String name) {}
+            public void take(int heapId, int markers) {}
+            public void newGame() {}
+            public void quit() {
+                if (audience != null) {
+                    audience.remove(proxy.clientAddress());
+                }
+            }
+        };
+    }
+    /**
+     * Journals the state of the game after it changed.
+     * @param winner    id belonging to the winner, or -1 if the game is not
+     *                  over
+     */
+    private void record(int winner) {
+        SessionJournal journal = manager.journal();
+        if (journal != null) {
+            journal.state(id, heap, turn, score, winner, order, position);
+        }
     }
     /**
-     * This method communicates the score to the players.
+     * This method communicates the heaps, the scores and either the winner or
+     * whose turn it is to the players in a single update.
+     * @param winner    id belonging to the winner, or -1 if the game is not
+     *                  over
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
-    private void sendScore() throws IOException {
-        listenerList.get(0).score(turn, score[turn]);
-        listenerList.get(1).score(turn, score[turn]);
+    private void sendState(int winner) throws IOException {
+        for (int i = 0; i < seated; i++) {
+            listeners[i].state(heap, turn, score, winner);
+        }
+        if (audience != null) {
+            audience.state(heap, turn, score, winner);
+        }
     }
     /**
-     * This method communicates the names of both players to the players.
+     * This method communicates the names of all players to the players.
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
     private void sendNames() throws IOException {
-        listenerList.get(0).name(0, names[0]);
-        listenerList.get(0).name(1, names[1]);
-        listenerList.get(1).name(0, names[0]);
-        listenerList.get(1).name(1, names[1]);
+        for (int i = 0; i < seated; i++) {
+            for (int j = 0; j < seated; j++) {
+                listeners[i].name(j, names[j]);
+            }
+        }
+        if (audience != null) {
+            for (int j = 0; j < seated; j++) {
+                audience.name(j, names[j]);
+            }
+        }
     }
     /**
      * This method communicates a quit action to the players or the session
-     * manager.
+     * manager. A session that ends before it is full leaves matchmaking, and
+     * the players who were waiting in it are told.
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
     private void sendQuit() throws IOException {
-        if (listenerList.size() == 2) {
-            listenerList.get(0).quit();
-            listenerList.get(1).quit();
-        } else {
-        // the manager only resets the current session if the session isn't full
-            manager.quit();
+        if (seated < listeners.length) {
+            manager.leave(this);
+        }
+        if (seated > 1) {
+            for (int i = 0; i < seated; i++) {
+                listeners[i].quit();
+            }
+            if (audience != null) {
+                audience.quit();
+            }
         }
     }
 }
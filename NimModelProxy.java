@@ -1,31 +1,127 @@
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.io.UTFDataFormatException;
 import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 /**
  * The NimModelProxy class manages the connection between the server and client
  * and relays messages between them.
+ * <P>
+ * Each proxy receives on its own reader, which decodes every message in place
+ * in one direct buffer. Readers run on virtual threads where the platform has
+ * them, so one process can hold thousands of proxies, and on a thread of
+ * their own otherwise. A reader outlives bad messages and failed sends and
+ * receives; it ends only when its channel is closed.
  * 
  * @author  Pavel Rozvora (pxr8306)
  * @version 2015-11-08
  */
 public class NimModelProxy implements ViewListener {
-    private DatagramSocket mailbox;
+    /** How often an otherwise silent client sends a heartbeat, in ms. */
+    static final long HEARTBEAT_INTERVAL = 5000;
+    /** How long a reader waits after a failed receive, in ms. */
+    static final long RETRY_DELAY = 100;
+    private DatagramChannel mailbox;
     private SocketAddress dest;
     private ModelListener modelListener;
+    private ByteBuffer out = ByteBuffer.allocate(NimCodec.MAX_FRAME);
+    private ReliableLink link;
+    private static TimerWheel timers;
+    private static Executor readers;
+    private volatile boolean closed;
+    private volatile long lastSent = TimerWheel.now();
+    private int[] heaps;
+    private int[] scores;
+    private TimerWheel.Timer heartbeatTimer = new TimerWheel.Timer() {
+        protected void expire(long now) throws IOException {
+            if (closed) {
+                return;
+            }
+            if (now - lastSent >= HEARTBEAT_INTERVAL) {
+                heartbeat();
+            }
+            timers().schedule(this, lastSent + HEARTBEAT_INTERVAL);
+        }
+    };
     /**
      * Constructor.
-     * @param socket    the socket over which the server and client communicate
+     * @param mailbox   the bound channel over which the server and client
+     *                  communicate, in blocking mode
+     * @param dest      the server's address
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
-    public NimModelProxy(DatagramSocket mailbox, SocketAddress dest) 
+    public NimModelProxy(DatagramChannel mailbox, SocketAddress dest)
             throws IOException {
+        this(mailbox, dest, false);
+    }
+    /**
+     * Constructor.
+     * @param mailbox   the bound channel over which the server and client
+     *                  communicate, in blocking mode
+     * @param dest      the server's address
+     * @param reliable  true to send and receive every message through a
+     *                  reliable link
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public NimModelProxy(DatagramChannel mailbox, SocketAddress dest,
+            boolean reliable) throws IOException {
         this.mailbox = mailbox;
         this.dest = dest;
+        if (reliable) {
+            int epoch = ThreadLocalRandom.current().nextInt(1,
+                    Integer.MAX_VALUE);
+            link = new ReliableLink(new ReliableLink.Transport() {
+                public void transmit(ByteBuffer frame) throws IOException {
+                    mailbox.send(frame, dest);
+                }
+                // a server that stopped acknowledging ends the game
+                public void failed() throws IOException {
+                    if (!closed) {
+                        closed = true;
+                        modelListener.quit();
+                    }
+                }
+            }, timers(), epoch);
+        }
+    }
+    /**
+     * Returns the timer wheel shared by the reliable links of every proxy in
+     * this process, starting its thread on first use.
+     * @return  the timer wheel
+     */
+    private static synchronized TimerWheel timers() {
+        if (timers == null) {
+            timers = new TimerWheel(10, 512);
+            timers.start("NimModelProxy timers");
+        }
+        return timers;
+    }
+    /**
+     * Returns the executor the readers of every proxy in this process run
+     * on. It starts a virtual thread per reader where the platform has
+     * virtual threads, and a platform thread per reader otherwise.
+     * @return  the executor
+     */
+    private static synchronized Executor readers() {
+        if (readers == null) {
+            try {
+                readers = (Executor) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+            } catch (ReflectiveOperationException exc) {
+                readers = new Executor() {
+                    public void execute(Runnable reader) {
+                        new Thread(reader, "NimModelProxy reader").start();
+                    }
+                };
+            }
+        }
+        return readers;
     }
     /**
      * Sets the ModelProxy's model listener
@@ -33,7 +129,8 @@ public class NimModelProxy implements ViewListener {
      */
     public void setModelListener(ModelListener modelListener) {
         this.modelListener = modelListener;
-        new ReaderThread() .start();
+        readers().execute(new Reader());
+        timers().schedule(heartbeatTimer, lastSent + HEARTBEAT_INTERVAL);
     }
     // implement ViewListener
     /**
@@ -43,14 +140,34 @@ public class NimModelProxy implements ViewListener {
      * @param name  The player's name
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
-    public void join(NimViewProxy proxy, String name) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream out = new DataOutputStream (baos);
-        out.writeByte('J');
-        out.writeUTF(name);
-        out.close();
-        byte[] message = baos.toByteArray();
-        mailbox.send(new DatagramPacket(message, message.length, dest));
+    public synchronized void join(NimViewProxy proxy, String name) throws IOException {
+        NimCodec.putJoin(frame(), name);
+        send();
+    }
+    /**
+     * Asks to be placed in a game session for a given number of players.
+     * @param name      The player's name
+     * @param players   The number of players, or 0 for the server's default
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public synchronized void join(String name, int players)
+            throws IOException {
+        NimCodec.putJoin(frame(), name, players);
+        send();
+    }
+    /**
+     * Asks to be placed in a game session for a given number of players,
+     * either with other players or at once with bots in the free seats.
+     * @param name      The player's name
+     * @param players   The number of players, or 0 for the server's default
+     * @param bots      True to play against bots
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public synchronized void join(String name, int players, boolean bots)
+            throws IOException {
+        NimCodec.putJoin(frame(), name, players,
+                bots ? NimCodec.WITH_BOTS : NimCodec.WITH_PLAYERS);
+        send();
     }
     /**
      * This method tells the server what move the player made.
@@ -58,102 +175,196 @@ public class NimModelProxy implements ViewListener {
      * @param markers   how many markers were taken
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
-    public void take(int heapId, int markers) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream out = new DataOutputStream (baos);
-        out.writeByte('T');
-        out.writeByte(heapId);
-        out.writeByte(markers);
-        out.close();
-        byte[] message = baos.toByteArray();
-        mailbox.send(new DatagramPacket(message, message.length, dest));
+    public synchronized void take(int heapId, int markers) throws IOException {
+        NimCodec.putTake(frame(), heapId, markers);
+        send();
+    }
+    /**
+     * This method tells the server what move the player made, as the markers
+     * taken from each heap.
+     * @param takes the markers taken from each heap
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public synchronized void take(int[] takes) throws IOException {
+        NimCodec.putTakes(frame(), takes);
+        send();
     }
     /**
      * This method informs the server that a player would like to start a new
      * game.
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
-    public void newGame() throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream out = new DataOutputStream (baos);
-        out.writeByte('N');
-        out.close();
-        byte[] message = baos.toByteArray();
-        mailbox.send(new DatagramPacket(message, message.length, dest));
+    public synchronized void newGame() throws IOException {
+        NimCodec.putNewGame(frame());
+        send();
+    }
+    /**
+     * The watch method asks the server to follow a game session as a
+     * spectator.
+     * @param proxy Not used on the client
+     * @param name  The name of a player in the game to watch, or an empty
+     *              name for any game
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public synchronized void watch(NimViewProxy proxy, String name)
+            throws IOException {
+        NimCodec.putWatch(frame(), name);
+        send();
     }
     /**
      * This method informs the server that a player has terminated the program.
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
-    public void quit() throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream out = new DataOutputStream (baos);
-        out.writeByte('Q');
-        out.close();
-        byte[] message = baos.toByteArray();
-        mailbox.send(new DatagramPacket(message, message.length, dest));
+    public synchronized void quit() throws IOException {
+        closed = true;
+        NimCodec.putQuit(frame());
+        send();
     }
     /**
-     * ReaderThread is a thread which handles messages from the server.
+     * This method tells the server that the client is still alive. Heartbeats
+     * are never retransmitted, so they bypass the reliable link.
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    private synchronized void heartbeat() throws IOException {
+        NimCodec.putHeartbeat(frame());
+        out.flip();
+        mailbox.send(out, dest);
+        lastSent = TimerWheel.now();
+    }
+    /**
+     * Clears the outbound buffer for the next frame.
+     * @return  the outbound buffer
+     */
+    private ByteBuffer frame() {
+        out.clear();
+        return out;
+    }
+    /**
+     * Sends the frame in the outbound buffer to the server, through the
+     * reliable link if there is one.
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    private void send() throws IOException {
+        lastSent = TimerWheel.now();
+        out.flip();
+        if (link != null) {
+            link.send(out);
+        } else {
+            mailbox.send(out, dest);
+        }
+    }
+    /**
+     * Decodes one message in place and calls the corresponding method of the
+     * model listener. Only the reader calls this method.
+     * @param in    the contents of the datagram
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    void process(ByteBuffer in) throws IOException {
+        int id;
+        byte b = in.get();
+        switch (b) {
+        case NimCodec.ID:
+            id = in.get();
+            modelListener.id(id);
+            break;
+        case NimCodec.NAME:
+            id = in.get();
+            String name;
+            try {
+                name = NimCodec.getUTF(in);
+            } catch (UTFDataFormatException exc) {
+                System.err.println("Bad message");
+                break;
+            }
+            modelListener.name(id, name);
+            break;
+        case NimCodec.SCORE:
+            id = in.get();
+            int score = NimCodec.getVarint(in);
+            modelListener.score(id, score);
+            break;
+        case NimCodec.HEAP:
+            int heapId = NimCodec.getVarint(in);
+            int markers = NimCodec.getVarint(in);
+            modelListener.heap(heapId, markers);
+            break;
+        case NimCodec.TURN:
+            id = in.get();
+            modelListener.turn(id);
+            break;
+        case NimCodec.WIN:
+            id = in.get();
+            modelListener.win(id);
+            break;
+        case NimCodec.STATE:
+            heaps = NimCodec.getList(in, heaps);
+            id = in.get();
+            scores = NimCodec.getList(in, scores);
+            int winner = in.get();
+            modelListener.state(heaps, id, scores, winner);
+            break;
+        case NimCodec.QUIT:
+            modelListener.quit();
+            break;
+        default:
+            System.err.println("Bad message");
+            break;
+        }
+    }
+    /**
+     * A Reader handles the messages from the server. It receives every
+     * message into the same direct buffer and decodes it there.
      * @author  Pavel Rozvora (pxr8306)
      * @version 2015-11-06
      */
-    private class ReaderThread extends Thread {
+    private class Reader implements Runnable, ReliableLink.Receiver {
+        private ByteBuffer in = ByteBuffer.allocateDirect(NimCodec.MAX_FRAME);
         /**
          * Listens for messages and calls the corresponding methods according to
-         * the protocol.
+         * the protocol until the channel is closed. A failed receive or a
+         * failed answer to a message is reported and the reader goes on.
          */
         public void run() {
-            byte[] message = new byte[128];
             try {
                 while(true) {
-                    DatagramPacket packet =
-                            new DatagramPacket (message, message.length);
-                    mailbox.receive(packet);
-                    DataInputStream in = new DataInputStream(
-                            new ByteArrayInputStream(
-                                    message, 0, packet.getLength()));
-                    int id;
-                    byte b = in.readByte();
-                    switch (b) {
-                    case 'I':
-                        id = in.readByte();
-                        modelListener.id(id);
-                        break;
-                    case 'N':
-                        id = in.readByte();
-                        String name = in.readUTF();
-                        modelListener.name(id, name);
-                        break;
-                    case 'S':
-                        id = in.readByte();
-                        int score = in.readByte();
-                        modelListener.score(id, score);
-                        break;
-                    case 'H':
-                        int heapId = in.readByte();
-                        int markers = in.readByte();
-                        modelListener.heap(heapId, markers);
-                        break;
-                    case 'T':
-                        id = in.readByte();
-                        modelListener.turn(id);
-                        break;
-                    case 'W':
-                        id = in.readByte();
-                        modelListener.win(id);
-                        break;
-                    case 'Q':
-                        modelListener.quit();
-                        break;
-                    default:
+                    in.clear();
+                    try {
+                        mailbox.receive(in);
+                        in.flip();
+                        if (link != null && ReliableLink.isReliable(in)) {
+                            link.receive(in, this);
+                        } else {
+                            process(in);
+                        }
+                    } catch (BufferUnderflowException
+                            | IndexOutOfBoundsException exc) {
                         System.err.println("Bad message");
+                    } catch (ClosedChannelException exc) {
                         break;
+                    } catch (IOException exc) {
+                        exc.printStackTrace(System.err);
+                        Thread.sleep(RETRY_DELAY);
                     }
                 }
-            } catch (IOException exc){}
+            } catch (InterruptedException exc) {}
             finally {
-                mailbox.close();
+                closed = true;
+                try {
+                    mailbox.close();
+                } catch (IOException exc) {}
+            }
+        }
+        /**
+         * Processes a message delivered in order by the reliable link.
+         * @param frame the message
+         * @throws IOException  Thrown when I/O fails or is interrupted
+         */
+        public void deliver(ByteBuffer frame) throws IOException {
+            try {
+                process(frame);
+            } catch (BufferUnderflowException
+                    | IndexOutOfBoundsException exc) {
+                System.err.println("Bad message");
             }
         }
     }
@@ -0,0 +1,472 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+/**
+ * The NimRules class is the rule set a game session plays by. It decides
+ * which moves are legal, when a heap has no move left, who wins, and which
+ * move is best, so the session, the server's bots and the load generator all
+ * play the same game.
+ * <P>
+ * A move is given as the markers it takes from each heap. The rule sets are:
+ * <UL>
+ * <LI>normal: take any number of markers from one heap; whoever takes the
+ *     last marker wins.
+ * <LI>misere: the same moves, but whoever takes the last marker loses.
+ * <LI>subtract:<I>s1,s2,...</I>: take exactly one of the listed numbers of
+ *     markers from one heap; whoever makes the last move wins.
+ * <LI>moore:<I>k</I>: take any number of markers from each of up to k
+ *     heaps at once; whoever takes the last marker wins.
+ * </UL>
+ * Rule sets are immutable and shared by every session that plays by them.
+ * forName() keeps up to MAX_CACHED of them, so a subtraction game's Grundy
+ * table is computed once per rule set rather than per session or per move.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public abstract class NimRules {
+    /** Normal play Nim, the default rules. */
+    public static final NimRules NORMAL = new Normal();
+    /** The most rule sets forName() keeps. */
+    static final int MAX_CACHED = 16;
+    private static final ConcurrentHashMap<String, NimRules> CACHE =
+            new ConcurrentHashMap<String, NimRules>();
+    private String name;
+    /**
+     * Constructor.
+     * @param name  the name the rule set is parsed from
+     */
+    private NimRules(String name) {
+        this.name = name;
+    }
+    /**
+     * Returns the rule set with the given name.
+     * @param name  normal, misere, subtract:<I>s1,s2,...</I> or
+     *              moore:<I>k</I>
+     * @return  the rule set
+     * @throws IllegalArgumentException Thrown if the name is not a rule set
+     */
+    public static NimRules forName(String name) {
+        NimRules rules = CACHE.get(name);
+        if (rules != null) {
+            return rules;
+        }
+        rules = parse(name);
+        if (CACHE.size() < MAX_CACHED) {
+            NimRules cached = CACHE.putIfAbsent(name, rules);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return rules;
+    }
+    /**
+     * Parses the name of a rule set.
+     * @param name  the name
+     * @return  a new rule set
+     * @throws IllegalArgumentException Thrown if the name is not a rule set
+     */
+    private static NimRules parse(String name) {
+        int colon = name.indexOf(':');
+        String kind = colon < 0 ? name : name.substring(0, colon);
+        String argument = colon < 0 ? null : name.substring(colon + 1);
+        try {
+            if (kind.equals("normal") && argument == null) {
+                return NORMAL;
+            } else if (kind.equals("misere") && argument == null) {
+                return new Misere();
+            } else if (kind.equals("subtract") && argument != null) {
+                String[] items = argument.split(",");
+                int[] takes = new int[items.length];
+                for (int i = 0; i < items.length; i++) {
+                    takes[i] = Integer.parseInt(items[i].trim());
+                }
+                return new Subtraction(name, takes);
+            } else if (kind.equals("moore") && argument != null) {
+                return new Moore(name, Integer.parseInt(argument.trim()));
+            }
+        } catch (NumberFormatException exc) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Unknown rules " + name);
+    }
+    /**
+     * Returns the name of this rule set, which forName() parses back.
+     * @return  the name
+     */
+    public String toString() {
+        return name;
+    }
+    /**
+     * Checks whether a move on one heap is legal.
+     * @param heaps     the amount of markers in each heap
+     * @param heapId    id of heap from which markers are taken
+     * @param markers   how many markers are taken
+     * @return  true if the move is legal
+     */
+    public boolean legal(int[] heaps, int heapId, int markers) {
+        return heapId >= 0 && heapId < heaps.length && markers >= 1
+                && markers <= heaps[heapId];
+    }
+    /**
+     * Checks whether a move is legal. Unless the rules say otherwise, a move
+     * takes markers from exactly one heap.
+     * @param heaps the amount of markers in each heap
+     * @param takes the markers the move takes from each heap
+     * @return  true if the move is legal
+     */
+    public boolean legal(int[] heaps, int[] takes) {
+        int heapId = single(takes);
+        return heapId >= 0 && legal(heaps, heapId, takes[heapId]);
+    }
+    /**
+     * Returns the heap a move takes markers from.
+     * @param takes the markers the move takes from each heap
+     * @return  the heap's id, or -1 if the move takes from no heap or from
+     *          more than one
+     */
+    static int single(int[] takes) {
+        int heapId = -1;
+        for (int h = 0; h < takes.length; h++) {
+            if (takes[h] != 0) {
+                if (heapId >= 0) {
+                    return -1;
+                }
+                heapId = h;
+            }
+        }
+        return heapId;
+    }
+    /**
+     * Checks whether a heap has no move left. Once every heap is terminal
+     * the game is over.
+     * @param markers   the amount of markers in the heap
+     * @return  true if no move takes markers from the heap
+     */
+    public boolean terminal(int markers) {
+        return markers == 0;
+    }
+    /**
+     * Checks whether a game can be played with the given heaps.
+     * @param heaps the amount of markers each heap starts with
+     * @return  true if some heap has a move
+     */
+    public boolean playable(int[] heaps) {
+        for (int markers : heaps) {
+            if (!terminal(markers)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * Tells who wins a game: the player who made the last move, or under
+     * misere rules the player who did not.
+     * @return  true if the last move wins
+     */
+    public boolean lastMoverWins() {
+        return true;
+    }
+    /**
+     * Finds a move that wins against any defence, if there is one.
+     * @param heaps the amount of markers in each heap, not all terminal
+     * @param takes filled with the markers the move takes from each heap
+     * @return  true if a winning move was found, false if every move loses
+     *          against optimal play
+     */
+    public abstract boolean winningMove(int[] heaps, int[] takes);
+    /**
+     * Finds the best move: the winning move if there is one, and otherwise
+     * the smallest move on the largest heap, which leaves the opponent the
+     * most room to go wrong.
+     * @param heaps the amount of markers in each heap, not all terminal
+     * @param takes filled with the markers the move takes from each heap
+     */
+    public void bestMove(int[] heaps, int[] takes) {
+        if (winningMove(heaps, takes)) {
+            return;
+        }
+        int largest = 0;
+        for (int h = 1; h < heaps.length; h++) {
+            if (heaps[h] > heaps[largest]) {
+                largest = h;
+            }
+        }
+        Arrays.fill(takes, 0);
+        takes[largest] = smallestTake();
+    }
+    /**
+     * Picks a random legal move on one heap.
+     * @param heaps     the amount of markers in each heap, not all terminal
+     * @param takes     filled with the markers the move takes from each heap
+     * @param random    the source of randomness
+     */
+    public void randomMove(int[] heaps, int[] takes, Random random) {
+        int h = random.nextInt(heaps.length);
+        while (terminal(heaps[h])) {
+            h = (h + 1) % heaps.length;
+        }
+        Arrays.fill(takes, 0);
+        takes[h] = randomTake(heaps[h], random);
+    }
+    /**
+     * Returns the fewest markers a move may take from a heap.
+     * @return  the smallest take
+     */
+    int smallestTake() {
+        return 1;
+    }
+    /**
+     * Picks how many markers to take from a heap that has a move.
+     * @param markers   the amount of markers in the heap
+     * @param random    the source of randomness
+     * @return  a legal number of markers to take
+     */
+    int randomTake(int markers, Random random) {
+        return 1 + random.nextInt(markers);
+    }
+    /**
+     * Normal is normal play Nim, solved by the nim-sum.
+     */
+    private static class Normal extends NimRules {
+        /**
+         * Constructor.
+         */
+        public Normal() {
+            super("normal");
+        }
+        public boolean winningMove(int[] heaps, int[] takes) {
+            return unpack(NimSolver.winningMove(heaps), takes);
+        }
+    }
+    /**
+     * Misere is misere Nim. It is played like normal Nim until the move that
+     * would leave no heap of more than one marker, which instead leaves an
+     * odd number of single markers.
+     */
+    private static class Misere extends NimRules {
+        /**
+         * Constructor.
+         */
+        public Misere() {
+            super("misere");
+        }
+        public boolean lastMoverWins() {
+            return false;
+        }
+        public boolean winningMove(int[] heaps, int[] takes) {
+            int large = 0;
+            int largeHeap = -1;
+            int singles = 0;
+            for (int h = 0; h < heaps.length; h++) {
+                if (heaps[h] > 1) {
+                    large++;
+                    largeHeap = h;
+                } else if (heaps[h] == 1) {
+                    singles++;
+                }
+            }
+            if (large == 0) {
+                // every move takes a single marker; an even number of them
+                // leaves the last one to the opponent
+                if (singles % 2 == 1) {
+                    return false;
+                }
+                for (int h = 0; h < heaps.length; h++) {
+                    if (heaps[h] == 1) {
+                        return unpack(NimSolver.move(h, 1), takes);
+                    }
+                }
+                return false;
+            }
+            if (large == 1) {
+                int keep = singles % 2 == 0 ? 1 : 0;
+                return unpack(NimSolver.move(largeHeap,
+                        heaps[largeHeap] - keep), takes);
+            }
+            return unpack(NimSolver.winningMove(heaps), takes);
+        }
+    }
+    /**
+     * Subtraction is a subtraction game: a move takes one of a fixed set of
+     * numbers of markers from one heap. The game is the sum of its heaps, so
+     * a position is lost exactly when the exclusive or of the heaps' Grundy
+     * numbers is zero. The Grundy number of a heap is the smallest number
+     * that is not the Grundy number of a heap one move away; the table holds
+     * it for every heap up to NimModel.MAX_MARKERS and is computed with the
+     * rule set. Each entry depends on the ones a move away, so the table is
+     * filled in order, which takes about a millisecond.
+     */
+    private static class Subtraction extends NimRules {
+        private static final int MAX_TAKES = 16;
+        private int[] takes;
+        private boolean[] allowed;
+        private int[] grundy = new int[NimModel.MAX_MARKERS + 1];
+        /**
+         * Constructor.
+         * @param name  the name of the rule set
+         * @param takes the numbers of markers a move may take
+         */
+        public Subtraction(String name, int[] takes) {
+            super(name);
+            this.takes = takes.clone();
+            Arrays.sort(this.takes);
+            if (takes.length < 1 || takes.length > MAX_TAKES
+                    || this.takes[0] < 1
+                    || this.takes[takes.length - 1] > NimModel.MAX_MARKERS) {
+                throw new IllegalArgumentException("Bad subtraction set");
+            }
+            this.allowed = new boolean[this.takes[takes.length - 1] + 1];
+            for (int take : this.takes) {
+                allowed[take] = true;
+            }
+            // a mex is at most the number of moves, so a bit set per heap
+            // holds the Grundy numbers one move away
+            for (int n = 1; n < grundy.length; n++) {
+                int seen = 0;
+                for (int take : this.takes) {
+                    if (take > n) {
+                        break;
+                    }
+                    seen |= 1 << grundy[n - take];
+                }
+                grundy[n] = Integer.numberOfTrailingZeros(~seen);
+            }
+        }
+        public boolean legal(int[] heaps, int heapId, int markers) {
+            return super.legal(heaps, heapId, markers)
+                    && markers < allowed.length && allowed[markers];
+        }
+        public boolean terminal(int markers) {
+            return markers < takes[0];
+        }
+        public boolean winningMove(int[] heaps, int[] takes) {
+            int sum = 0;
+            for (int markers : heaps) {
+                sum ^= grundy[markers];
+            }
+            if (sum == 0) {
+                return false;
+            }
+            for (int h = 0; h < heaps.length; h++) {
+                int target = grundy[heaps[h]] ^ sum;
+                for (int take : this.takes) {
+                    if (take > heaps[h]) {
+                        break;
+                    }
+                    if (grundy[heaps[h] - take] == target) {
+                        return unpack(NimSolver.move(h, take), takes);
+                    }
+                }
+            }
+            return false;
+        }
+        int smallestTake() {
+            return takes[0];
+        }
+        int randomTake(int markers, Random random) {
+            int count = 0;
+            while (count < takes.length && takes[count] <= markers) {
+                count++;
+            }
+            return takes[random.nextInt(count)];
+        }
+    }
+    /**
+     * Moore is Moore's Nim: a move takes markers from up to k heaps at once.
+     * A position is lost exactly when, in every binary digit, the number of
+     * heaps with that digit set is a multiple of k + 1. A winning move is
+     * built from the highest digit down: heaps that have been reduced in a
+     * higher digit may take any value in the lower ones, and a digit whose
+     * count is off is fixed either by reducing more heaps in that digit or by
+     * setting it in heaps that were already reduced.
+     */
+    private static class Moore extends NimRules {
+        private static final int DIGITS = 16;
+        private int k;
+        /**
+         * Constructor.
+         * @param name  the name of the rule set
+         * @param k     the most heaps a move may take from
+         */
+        public Moore(String name, int k) {
+            super(name);
+            if (k < 1 || k > NimModel.MAX_HEAPS) {
+                throw new IllegalArgumentException("Bad number of heaps");
+            }
+            this.k = k;
+        }
+        public boolean legal(int[] heaps, int[] takes) {
+            if (takes.length != heaps.length) {
+                return false;
+            }
+            int touched = 0;
+            for (int h = 0; h < takes.length; h++) {
+                if (takes[h] < 0 || takes[h] > heaps[h]) {
+                    return false;
+                } else if (takes[h] > 0) {
+                    touched++;
+                }
+            }
+            return touched >= 1 && touched <= k;
+        }
+        public boolean winningMove(int[] heaps, int[] takes) {
+            // takes holds each heap's new size until the end
+            System.arraycopy(heaps, 0, takes, 0, heaps.length);
+            int reduced = 0;
+            int count = 0;
+            for (int digit = DIGITS - 1; digit >= 0; digit--) {
+                int bit = 1 << digit;
+                int set = 0;
+                for (int h = 0; h < heaps.length; h++) {
+                    if ((reduced & (1 << h)) == 0 && (heaps[h] & bit) != 0) {
+                        set++;
+                    }
+                }
+                int excess = set % (k + 1);
+                if (excess == 0) {
+                    continue;
+                }
+                if (count + excess <= k) {
+                    // reduce more heaps, clearing this digit and below
+                    for (int h = 0; excess > 0; h++) {
+                        if ((reduced & (1 << h)) == 0
+                                && (heaps[h] & bit) != 0) {
+                            reduced |= 1 << h;
+                            count++;
+                            excess--;
+                            takes[h] = heaps[h] & ~(2 * bit - 1);
+                        }
+                    }
+                } else {
+                    // set this digit in enough of the reduced heaps
+                    int missing = k + 1 - excess;
+                    for (int h = 0; missing > 0; h++) {
+                        if ((reduced & (1 << h)) != 0) {
+                            takes[h] |= bit;
+                            missing--;
+                        }
+                    }
+                }
+            }
+            for (int h = 0; h < heaps.length; h++) {
+                takes[h] = heaps[h] - takes[h];
+            }
+            return count > 0;
+        }
+    }
+    /**
+     * Spreads a move packed by NimSolver over the heaps.
+     * @param move  the move, or -1 for none
+     * @param takes filled with the markers the move takes from each heap
+     * @return  true if there was a move
+     */
+    private static boolean unpack(int move, int[] takes) {
+        if (move < 0) {
+            return false;
+        }
+        Arrays.fill(takes, 0);
+        takes[NimSolver.heapOf(move)] = NimSolver.markersOf(move);
+        return true;
+    }
+}
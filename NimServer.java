@@ -1,9 +1,51 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
-import java.net.DatagramSocket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import javax.management.ObjectName;
 /**
  * NimServer is the server's main program. It starts up the model and server
  * and allows clients to connect.
- * Usage: java NimServer <I>serverhost</I> <I>serverport</I>
+ * Usage: java NimServer <I>serverhost</I> <I>serverport</I> [<I>shards</I>
+ * [parallel]]
+ * <P>
+ * With more than one shard, the server opens one mailbox per shard on the same
+ * port using SO_REUSEPORT. The kernel hashes each client address onto exactly
+ * one of the mailboxes, so every shard owns its own proxies and sessions and
+ * runs on its own thread. Only matchmaking is shared between the shards.
+ * <P>
+ * With the parallel option, the shards only decode and dispatch messages.
+ * Every session runs on its own serial executor, on a virtual thread where the
+ * platform has them and on a pool with a thread per processor otherwise, so
+ * independent games progress in parallel even with a single shard.
+ * <P>
+ * Sessions are for two players unless the system property nim.players gives
+ * another default, up to NimModel.MAX_PLAYERS; a client may ask for any size
+ * when it joins. The system property nim.order sets the turn order: seated
+ * (the default), rotate or random. The system property nim.heaps lists the
+ * markers each heap starts with, separated by commas, 3,4,5 by default. The
+ * system property nim.rules names the rules: normal (the default), misere,
+ * subtract:<I>s1,s2,...</I> or moore:<I>k</I>, as described in NimRules.
+ * <P>
+ * Players may ask to play against the server's bots. The system property
+ * nim.botwait gives the milliseconds after which bots take the free seats of
+ * a session that is still waiting for players; by default sessions wait for
+ * players as long as it takes.
+ * <P>
+ * The server's metrics are published over JMX as the MXBean nim:type=Server.
+ * Start the server with -Dcom.sun.management.jmxremote to read them with
+ * jconsole or another JMX client.
+ * <P>
+ * Finished games are kept in the results log named by the system property
+ * nim.results, nim-results.log by default. Its leaderboard is published over
+ * JMX as nim:type=Leaderboard.
+ * <P>
+ * Every session is journaled in the file named by the system property
+ * nim.journal, nim-journal.log by default, with a compact snapshot next to it.
+ * A server restarted after a crash rebuilds the sessions of the previous run
+ * from the journal and sends their players the state of their games.
  * 
  * @author  Pavel Rozvora (pxr8306)
  * @version 2015-12-08
@@ -15,26 +57,171 @@ public class NimServer {
      * @throws Exception    Thrown if initialization fails at some point
      */
     public static void main(String[] args) throws Exception {
-        if (args.length != 2) {
+        if (args.length < 2 || args.length > 4) {
             usage();
         }
         String host = args[0];
         int port = Integer.parseInt(args[1]);
-        DatagramSocket mailbox = new DatagramSocket(
-                new InetSocketAddress(host, port));
-        MailboxManager manager = new MailboxManager(mailbox);
-        while(true) {
-            manager.receiveMessage();
+        int shards = args.length >= 3 ? Integer.parseInt(args[2]) : 1;
+        if (shards < 1) {
+            usage();
+        }
+        boolean parallel = false;
+        if (args.length == 4) {
+            if (!args[3].equals("parallel")) {
+                usage();
+            }
+            parallel = true;
+        }
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (shards > 1 && !supportsReusePort()) {
+            System.err.println("SO_REUSEPORT is not supported, "
+                    + "running a single shard");
+            shards = 1;
+        }
+        SessionManager sessionManager = parallel
+                ? new SessionManager(SerialExecutor.sessionThreads())
+                : new SessionManager();
+        sessionManager.setPlayers(Integer.getInteger("nim.players", 2));
+        sessionManager.setOrder(order(System.getProperty("nim.order",
+                "seated")));
+        sessionManager.setRules(NimRules.forName(System.getProperty(
+                "nim.rules", "normal")));
+        sessionManager.setHeaps(heaps(System.getProperty("nim.heaps",
+                "3,4,5")));
+        sessionManager.setBotWait(Long.getLong("nim.botwait", 0));
+        ResultsLog results = new ResultsLog(new File(
+                System.getProperty("nim.results", "nim-results.log")));
+        results.start("results-log");
+        sessionManager.setResults(results);
+        SessionJournal journal = new SessionJournal(new File(
+                System.getProperty("nim.journal", "nim-journal.log")));
+        sessionManager.setJournal(journal);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(
+                sessionManager.metrics(), new ObjectName("nim:type=Server"));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(
+                results.leaderboard(), new ObjectName("nim:type=Leaderboard"));
+        ShardThread[] threads = new ShardThread[shards];
+        for (int i = 0; i < shards; i++) {
+            threads[i] = new ShardThread(i, new MailboxManager(
+                    openMailbox(address, shards > 1), sessionManager));
+        }
+        sessionManager.restore(threads[0].manager);
+        journal.start("session-journal");
+        for (ShardThread thread : threads) {
+            thread.start();
+        }
+        for (ShardThread thread : threads) {
+            thread.join();
+        }
+    }
+    /**
+     * Parses the name of a turn order.
+     * @param name  seated, rotate or random
+     * @return  the turn order
+     */
+    private static int order(String name) {
+        switch (name) {
+        case "seated":
+            return NimModel.SEATED;
+        case "rotate":
+            return NimModel.ROTATE;
+        case "random":
+            return NimModel.RANDOM;
+        default:
+            throw new IllegalArgumentException("Unknown turn order " + name);
+        }
+    }
+    /**
+     * Parses a list of heaps.
+     * @param list  the markers each heap starts with, separated by commas
+     * @return  the heaps
+     */
+    private static int[] heaps(String list) {
+        String[] items = list.split(",");
+        int[] heaps = new int[items.length];
+        for (int i = 0; i < items.length; i++) {
+            heaps[i] = Integer.parseInt(items[i].trim());
         }
+        return heaps;
+    }
+    /**
+     * Checks whether the platform lets several mailboxes share one port.
+     * @return  true if SO_REUSEPORT is available
+     * @throws IOException  Thrown when a channel cannot be opened
+     */
+    private static boolean supportsReusePort() throws IOException {
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            return channel.supportedOptions().contains(
+                    StandardSocketOptions.SO_REUSEPORT);
+        }
+    }
+    /**
+     * Opens a mailbox bound to the server's address.
+     * @param address       the address to bind to
+     * @param reusePort     true if other mailboxes share the same port
+     * @return  the bound mailbox
+     * @throws IOException  Thrown when the mailbox cannot be bound
+     */
+    private static DatagramChannel openMailbox(InetSocketAddress address,
+            boolean reusePort) throws IOException {
+        DatagramChannel mailbox = DatagramChannel.open();
+        if (reusePort) {
+            mailbox.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        mailbox.bind(address);
+        return mailbox;
     }
     /**
      * The usage method checks to make sure the program's arguments are
      * supplied correctly.
      */
     private static void usage() {
-        System.err.println("Usage: java NimServer <serverhost> <serverport>");
+        System.err.println("Usage: java NimServer <serverhost> <serverport> "
+                + "[<shards> [parallel]]");
         System.err.println("<serverhost> is the server's host name or IP address.");
         System.err.println("<serverport> is the port number of the server.");
+        System.err.println("<shards> is the number of receiver threads "
+                + "(default 1).");
+        System.err.println("parallel runs every session on its own serial "
+                + "executor.");
         System.exit(0);
     }
+    /**
+     * ShardThread runs the receive loop of one shard's mailbox manager.
+     * @author  Pavel Rozvora (pxr8306)
+     * @version 2015-12-08
+     */
+    private static class ShardThread extends Thread {
+        private MailboxManager manager;
+        /**
+         * Constructor.
+         * @param index     the shard's index, used to name the thread
+         * @param manager   the mailbox manager owned by this shard
+         */
+        public ShardThread(int index, MailboxManager manager) {
+            super("shard-" + index);
+            this.manager = manager;
+        }
+        /**
+         * Starts the shard's sender, then receives and processes datagrams
+         * until the mailbox fails. A datagram whose processing fails with a
+         * runtime exception is reported and the shard goes on with the next
+         * one.
+         */
+        public void run() {
+            try {
+                manager.outbox().start(getName() + "-outbox");
+                while(true) {
+                    try {
+                        manager.receiveMessages();
+                    } catch (RuntimeException exc) {
+                        exc.printStackTrace(System.err);
+                    }
+                }
+            } catch (IOException exc) {
+                exc.printStackTrace(System.err);
+            }
+        }
+    }
 }
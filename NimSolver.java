@@ -0,0 +1,94 @@
+/**
+ * The NimSolver class computes optimal moves. The player who takes the last
+ * marker wins, so a position is lost for the player to move exactly when the
+ * nim-sum, the exclusive or of all heaps, is zero. From any other position
+ * some heap can be reduced to make the nim-sum zero, and that move wins.
+ * Finding it takes two passes over the heaps.
+ * <P>
+ * A move is packed into an int, with the heap id in the upper and the
+ * markers taken in the lower 16 bits, which holds every heap of up to
+ * NimModel.MAX_MARKERS markers.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public final class NimSolver {
+    /**
+     * Constructor. Not used, the solver has only static methods.
+     */
+    private NimSolver() {}
+    /**
+     * Computes the nim-sum of a position.
+     * @param heaps the amount of markers in each heap
+     * @return  the exclusive or of the heaps, zero for a lost position
+     */
+    public static int nimSum(int[] heaps) {
+        int nimSum = 0;
+        for (int markers : heaps) {
+            nimSum ^= markers;
+        }
+        return nimSum;
+    }
+    /**
+     * Finds the winning move of a position, if it has one.
+     * @param heaps the amount of markers in each heap
+     * @return  the move, or -1 if every move loses against optimal play
+     */
+    public static int winningMove(int[] heaps) {
+        int nimSum = nimSum(heaps);
+        if (nimSum != 0) {
+            for (int h = 0; h < heaps.length; h++) {
+                int target = heaps[h] ^ nimSum;
+                if (target < heaps[h]) {
+                    return move(h, heaps[h] - target);
+                }
+            }
+        }
+        return -1;
+    }
+    /**
+     * Finds the best move of a position. Without a winning move a single
+     * marker is taken from the largest heap, which leaves the opponent the
+     * most room to go wrong.
+     * @param heaps the amount of markers in each heap, not all empty
+     * @return  the move
+     */
+    public static int bestMove(int[] heaps) {
+        int move = winningMove(heaps);
+        if (move >= 0) {
+            return move;
+        }
+        int largest = 0;
+        for (int h = 1; h < heaps.length; h++) {
+            if (heaps[h] > heaps[largest]) {
+                largest = h;
+            }
+        }
+        return move(largest, 1);
+    }
+    /**
+     * Packs a move.
+     * @param heapId    id of heap from which markers are taken
+     * @param markers   how many markers are taken
+     * @return  the move
+     */
+    public static int move(int heapId, int markers) {
+        return (heapId << 16) | markers;
+    }
+    /**
+     * Returns the heap of a move.
+     * @param move  the move
+     * @return  id of heap from which markers are taken
+     */
+    public static int heapOf(int move) {
+        return move >>> 16;
+    }
+    /**
+     * Returns the markers of a move.
+     * @param move  the move
+     * @return  how many markers are taken
+     */
+    public static int markersOf(int move) {
+        return move & 0xFFFF;
+    }
+}
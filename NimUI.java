@@ -25,9 +25,13 @@
 
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.Transparency;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
@@ -35,8 +39,11 @@ import java.awt.event.MouseEvent;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
 import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.sql.Ref;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
@@ -47,6 +54,7 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 /**
  * Class NimUI provides the user interface for the Nim network game.
@@ -65,7 +73,70 @@ public class NimUI implements ModelListener
     // pxr - fields added for use by the UI
     private ViewListener viewListener;
     private int id;
-    private String name, theirName;
+    private boolean spectator;
+    private String name;
+    // pxr - every player's name and score, for sessions of more than two
+    private String[] names = new String [MAXPLAYERS];
+    private int[] scores = new int [MAXPLAYERS];
+    // pxr - the rest of the game as the reader thread last heard it; only the
+    //       reader thread touches these, the Swing thread sees them through
+    //       the frames they are published in
+    private int[] heaps = new int [NUMHEAPS];
+    private boolean myTurn;
+    private boolean canRestart = true;
+    private boolean over;
+    private String status = "";
+    private int resolved;
+    // pxr - the newest frame the Swing thread has not shown yet, and the task
+    //       that shows it; at most one such task is queued at any time
+    private AtomicReference<Frame> pending = new AtomicReference<Frame>();
+    // pxr - the sequence number of this player's last move; only the Swing
+    //       thread changes it
+    private volatile int moveSeq;
+    // pxr - the frame last shown and the move shown on top of it until the
+    //       server answers; only touched on the Swing thread
+    private Frame shown;
+    private int predicted;
+    private int predictedHeap;
+    private int predictedMarkers;
+    private Timer rollbackTimer;
+    private Runnable showPending = new Runnable() {
+        public void run() {
+            Frame frame = pending.getAndSet(null);
+            if (frame != null) {
+                show(frame);
+            }
+        }
+    };
+
+    /**
+     * pxr - A Frame is a copy of everything the window shows, taken by the
+     * reader thread and shown by the Swing thread. Frames are never changed
+     * once published.
+     */
+    private static class Frame
+    {
+        final int[] heaps;
+        final boolean myTurn;
+        final boolean canRestart;
+        final String mine;
+        final String others;
+        final String status;
+        // pxr - the moves up to this sequence number are in the frame
+        final int resolved;
+
+        Frame(int[] heaps, boolean myTurn, boolean canRestart, String mine,
+                String others, String status, int resolved)
+        {
+            this.heaps = heaps;
+            this.myTurn = myTurn;
+            this.canRestart = canRestart;
+            this.mine = mine;
+            this.others = others;
+            this.status = status;
+            this.resolved = resolved;
+        }
+    }
 
     // Interface for a listener for HeapPanel events.
 
@@ -78,17 +149,28 @@ public class NimUI implements ModelListener
     }
 
     // Class for a Swing widget displaying a heap of markers.
+    // pxr - markers are drawn from sprites rendered once, only the rows that
+    //       change are repainted, and a heap taller than ROWS markers shows
+    //       its top markers over a badge that counts the whole heap.
 
     private static class HeapPanel
     extends JPanel
     {
         private static final int W = 50;
         private static final int H = 30;
+        private static final int ROWS = 16;
         private static final Color FC = Color.RED;
         private static final Color OC = Color.BLACK;
+        private static final Color BC = Color.WHITE;
+
+        // pxr - the filled and the outlined marker, shared by every heap
+        //       panel; only touched on the Swing thread
+        private static BufferedImage filled;
+        private static BufferedImage outlined;
 
         private int id;
         private int maxCount;
+        private int rows;
         private int count;
         private boolean isEnabled;
         private HeapListener listener;
@@ -100,9 +182,10 @@ public class NimUI implements ModelListener
         {
             this.id = id;
             this.maxCount = maxCount;
+            this.rows = Math.min (maxCount, ROWS);
             this.count = maxCount;
             this.isEnabled = true;
-            Dimension dim = new Dimension (W, maxCount*H);
+            Dimension dim = new Dimension (W, rows*H);
             setMinimumSize (dim);
             setMaximumSize (dim);
             setPreferredSize (dim);
@@ -112,7 +195,7 @@ public class NimUI implements ModelListener
                 {
                     if (isEnabled && listener != null)
                     {
-                        int objClicked = maxCount - 1 - e.getY()/H;
+                        int objClicked = markerAt (rows - 1 - e.getY()/H);
                         int numRemoved = count - objClicked;
                         if (numRemoved > 0)
                             listener.removeObjects (id, numRemoved);
@@ -135,8 +218,16 @@ public class NimUI implements ModelListener
             count = Math.max (0, Math.min (count, maxCount));
             if (this.count != count)
             {
+                // pxr - repaint the rows between the old and the new top
+                //       marker, or just the badge if both are badged
+                if (this.count > rows && count > rows)
+                    repaintRows (0, 1);
+                else if (this.count > rows || count > rows)
+                    repaint();
+                else
+                    repaintRows (Math.min (this.count, count),
+                            Math.max (this.count, count));
                 this.count = count;
-                repaint();
             }
         }
 
@@ -147,51 +238,112 @@ public class NimUI implements ModelListener
             if (this.isEnabled != enabled)
             {
                 this.isEnabled = enabled;
-                repaint();
+                repaintRows (0, Math.min (count, rows));
             }
         }
 
-        // Paint this heap panel.
-        protected void paintComponent
-        (Graphics g) // Graphics context
+        // pxr - Returns the marker shown in a row, counted from the bottom;
+        //       the bottom row of a badged heap stands for its bottom marker.
+        private int markerAt
+        (int row) // Row, counted from the bottom
         {
-            super.paintComponent (g);
+            return count <= rows || row == 0 ? row : count - rows + row;
+        }
 
-            // Clone graphics context.
-            Graphics2D g2d = (Graphics2D) g.create();
+        // pxr - Repaints the rows from first up to but not including last,
+        //       counted from the bottom.
+        private void repaintRows
+        (int first, // First row
+                int last) // Row past the last one
+        {
+            if (first < last)
+                repaint (0, (rows - last)*H, W, (last - first)*H);
+        }
 
-            // Turn on antialiasing.
+        // pxr - Renders the markers once, compatible with the screen so
+        //       drawing them is a plain copy.
+        private void createSprites()
+        {
+            GraphicsConfiguration gc = getGraphicsConfiguration();
+            filled = sprite (gc, true);
+            outlined = sprite (gc, false);
+        }
+
+        // pxr - Renders one marker.
+        private static BufferedImage sprite
+        (GraphicsConfiguration gc, // Screen to render for, or null
+                boolean fill) // True for a filled, false for an outlined marker
+        {
+            BufferedImage image = gc != null
+                ? gc.createCompatibleImage (W, H, Transparency.TRANSLUCENT)
+                : new BufferedImage (W, H, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2d = image.createGraphics();
             g2d.setRenderingHint
             (RenderingHints.KEY_ANTIALIASING,
                     RenderingHints.VALUE_ANTIALIAS_ON);
+            Ellipse2D.Double ellipse =
+                new Ellipse2D.Double (1, 1, W - 2, H - 2);
+            g2d.setColor (fill ? FC : OC);
+            if (fill)
+                g2d.fill (ellipse);
+            else
+                g2d.draw (ellipse);
+            g2d.dispose();
+            return image;
+        }
 
-            // For drawing markers.
-            Ellipse2D.Double ellipse = new Ellipse2D.Double();
-            ellipse.width = W - 2;
-            ellipse.height = H - 2;
-            ellipse.x = 1;
-
-            // If enabled, draw filled markers.
-            if (isEnabled)
+        // Paint this heap panel.
+        protected void paintComponent
+        (Graphics g) // Graphics context
+        {
+            super.paintComponent (g);
+            if (filled == null)
+                createSprites();
+
+            // pxr - only the rows inside the clip are drawn
+            Rectangle clip = g.getClipBounds();
+            int top = rows - 1;
+            int bottom = 0;
+            if (clip != null)
             {
-                g2d.setColor (FC);
-                for (int i = 0; i < count; ++ i)
-                {
-                    ellipse.y = (maxCount - 1 - i)*H + 1;
-                    g2d.fill (ellipse);
-                }
+                top = Math.min (top, rows - 1 - clip.y/H);
+                bottom = Math.max (bottom,
+                        rows - 1 - (clip.y + clip.height - 1)/H);
             }
+            top = Math.min (top, Math.min (count, rows) - 1);
 
-            // If disabled, draw outlined markers.
-            else
+            // If enabled, draw filled markers; if disabled, outlined ones.
+            BufferedImage marker = isEnabled ? filled : outlined;
+            boolean badge = count > rows;
+            for (int row = badge ? Math.max (bottom, 1) : bottom;
+                    row <= top; ++ row)
             {
-                g2d.setColor (OC);
-                for (int i = 0; i < count; ++ i)
-                {
-                    ellipse.y = (maxCount - 1 - i)*H + 1;
-                    g2d.draw (ellipse);
-                }
+                g.drawImage (marker, 0, (rows - 1 - row)*H, null);
             }
+            if (badge && bottom == 0)
+                paintBadge (g);
+        }
+
+        // pxr - Paints the badge with the heap's count in the bottom row.
+        private void paintBadge
+        (Graphics g) // Graphics context
+        {
+            Graphics2D g2d = (Graphics2D) g.create();
+            g2d.setRenderingHint
+            (RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON);
+            int y = (rows - 1)*H;
+            g2d.setColor (isEnabled ? FC : OC);
+            if (isEnabled)
+                g2d.fillRoundRect (1, y + 1, W - 2, H - 2, H/2, H/2);
+            else
+                g2d.drawRoundRect (1, y + 1, W - 2, H - 2, H/2, H/2);
+            String text = String.valueOf (count);
+            FontMetrics fm = g2d.getFontMetrics();
+            g2d.setColor (isEnabled ? BC : OC);
+            g2d.drawString (text, (W - fm.stringWidth (text))/2,
+                    y + (H - fm.getHeight())/2 + fm.getAscent());
+            g2d.dispose();
         }
     }
 
@@ -201,9 +353,17 @@ public class NimUI implements ModelListener
     private static final int NUMOBJECTS = 5;
     private static final int GAP = 10;
     private static final int COL = 10;
+    private static final int MAXPLAYERS = 8;
+    // pxr - how long a move is shown before the server's answer, in ms; the
+    //       server ignores moves that are not legal without an answer
+    private static final int ROLLBACK = 2000;
 
     private JFrame frame;
+    // pxr - the heaps sit in a box of their own, so the board can grow to the
+    //       session's heaps
+    private JPanel heapBox;
     private HeapPanel[] heapPanel;
+    private HeapListener heapListener;
     private JTextField myNameField;
     private JTextField theirNameField;
     private JTextField whoWonField;
@@ -223,11 +383,14 @@ public class NimUI implements ModelListener
         frame.add (panel);
         panel.setBorder (BorderFactory.createEmptyBorder (GAP, GAP, GAP, GAP));
 
+        heapBox = new JPanel();
+        heapBox.setLayout (new BoxLayout (heapBox, BoxLayout.X_AXIS));
+        panel.add (heapBox);
         heapPanel = new HeapPanel [NUMHEAPS];
         for (int h = 0; h < NUMHEAPS; ++ h)
         {
-            panel.add (heapPanel[h] = new HeapPanel (h, NUMOBJECTS));
-            panel.add (Box.createHorizontalStrut (GAP));
+            heapBox.add (heapPanel[h] = new HeapPanel (h, NUMOBJECTS));
+            heapBox.add (Box.createHorizontalStrut (GAP));
         }
 
         JPanel fieldPanel = new JPanel();
@@ -287,30 +450,44 @@ public class NimUI implements ModelListener
             }
         });
         // pxr - HeapListener interface implemented here and set for each heap
-        for (int i = 0; i < 3; i++) {
-            heapPanel[i].setListener(new HeapListener() {
-                /**
-                 * This method tells the view listener to update the heaps.
-                 */
-                public void removeObjects(int id, int numRemoved) {
-                    try {
-                        viewListener.take(id, numRemoved);
-                    } catch (IOException e) {
-                        // pxr - catch taken from in-class example
-                        //       created by ark
-                        //       Password Crack Application Version 2  
-                        //       Class PasswordCrackUI
-                        JOptionPane.showMessageDialog
-                        (/*parentComponent*/ frame,
-                                /*message        */ "I/O error when sending to server",
-                                /*title          */ "I/O error",
-                                /*messageType    */ JOptionPane.ERROR_MESSAGE);
-                        System.exit (0);
-                    }
-
+        heapListener = new HeapListener() {
+            /**
+             * This method tells the view listener to update the heaps.
+             */
+            public void removeObjects(int id, int numRemoved) {
+                // pxr - show the move at once, the server confirms it later
+                predict(id, numRemoved);
+                try {
+                    viewListener.take(id, numRemoved);
+                } catch (IOException e) {
+                    // pxr - catch taken from in-class example
+                    //       created by ark
+                    //       Password Crack Application Version 2  
+                    //       Class PasswordCrackUI
+                    JOptionPane.showMessageDialog
+                    (/*parentComponent*/ frame,
+                            /*message        */ "I/O error when sending to server",
+                            /*title          */ "I/O error",
+                            /*messageType    */ JOptionPane.ERROR_MESSAGE);
+                    System.exit (0);
                 }
-            });
+
+            }
+        };
+        for (int i = 0; i < heapPanel.length; i++) {
+            heapPanel[i].setListener(heapListener);
         }
+        // pxr - a move the server has not answered in time is taken back
+        rollbackTimer = new Timer(ROLLBACK, new ActionListener() {
+            /**
+             * This listener shows the board as the server last sent it.
+             */
+            public void actionPerformed (ActionEvent e) {
+                predicted = 0;
+                render();
+            }
+        });
+        rollbackTimer.setRepeats(false);
         // pxr - WindowListener added to allow the client to send a quit message
         //       before closing
         frame.addWindowListener(new WindowListener() {
@@ -400,26 +577,27 @@ public class NimUI implements ModelListener
         this.viewListener = viewListener;
     }
 
-    // pxr - implement ModelListener interface
+    // pxr - implement ModelListener interface. The methods run on the
+    //       reader thread: they update the game and publish a frame of it
+    //       without waiting for the Swing thread, which shows only the newest
+    //       frame, so a burst of updates is painted once.
 
     /**
      * This method sets the player's id and initializes the window.
      * @param id    the player's id
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
-    public synchronized void id(int id) throws IOException {
+    public void id(int id) throws IOException {
         this.id = id;
-        onSwingThreadDo(new Runnable() {
-            public void run() {
-                for (int i = 0; i < 3; i++) {
-                    heapPanel[i].setCount(i+3);
-                    heapPanel[i].setEnabled(false);
-                }
-                if (id == 0) {
-                    newGameButton.setEnabled(false);
-                }
-            }
-        });
+        // pxr - a spectator's id is -1, which is never anyone's turn
+        this.spectator = id < 0;
+        for (int i = 0; i < heaps.length; i++) {
+            heaps[i] = i+3;
+        }
+        myTurn = false;
+        over = false;
+        canRestart = id != 0 && !spectator;
+        publish();
     }
     /**
      * This method sets the player names. Scores initialized to 0.
@@ -427,22 +605,13 @@ public class NimUI implements ModelListener
      * @param name  the player's name
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
-    public synchronized void name(int id, String name) throws IOException {
-        if (id == this.id) {
+    public void name(int id, String name) throws IOException {
+        names[id] = name;
+        scores[id] = 0;
+        if (isMine(id)) {
             this.name = name;
-            onSwingThreadDo(new Runnable() {
-                public void run() {
-                    myNameField.setText(name + " = 0");
-                }
-            });
-        } else {
-            theirName = name;
-            onSwingThreadDo(new Runnable() {
-                public void run() {
-                    theirNameField.setText(name + " = 0");
-                }
-            });
         }
+        publish();
     }
     /**
      * This method sets the player scores.
@@ -450,20 +619,9 @@ public class NimUI implements ModelListener
      * @param score the player's score
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
-    public synchronized void score(int id, int score) throws IOException {
-        if (id == this.id) {
-            onSwingThreadDo(new Runnable() {
-                public void run() {
-                    myNameField.setText(name + " = " + score);
-                }
-            });
-        } else {
-            onSwingThreadDo(new Runnable() {
-                public void run() {
-                    theirNameField.setText(theirName + " = " + score);
-                }
-            });
-        }
+    public void score(int id, int score) throws IOException {
+        scores[id] = score;
+        publish();
     }
     /**
      * This method updates the state of a heap.
@@ -471,13 +629,9 @@ public class NimUI implements ModelListener
      * @param markers   the amount of markers in the heap
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
-    public synchronized void heap(int heapId, int markers) throws IOException {
-        onSwingThreadDo(new Runnable() {
-            public void run() {
-                heapPanel[heapId].setCount(markers);
-                heapPanel[heapId].repaint();
-            }
-        });
+    public void heap(int heapId, int markers) throws IOException {
+        setHeap(heapId, markers);
+        publish();
     }
     /**
      * This method tells the players whose turn it is. The heap is disabled
@@ -485,48 +639,208 @@ public class NimUI implements ModelListener
      * @param id    id of the player who is taking their turn
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
-    public synchronized void turn(int id) throws IOException {
-        if (id == this.id) {
-            onSwingThreadDo(new Runnable() {
-                public void run() {
-                    whoWonField.setText("");
-                    newGameButton.setEnabled(true);
-                    for (int i = 0; i < 3; i++) {
-                        heapPanel[i].setEnabled(true);
-                    }
-                }
-            });
-        } else {
-            onSwingThreadDo(new Runnable() {
-                public void run() {
-                    whoWonField.setText("");
-                    newGameButton.setEnabled(true);
-                    for (int i = 0; i < 3; i++) {
-                        heapPanel[i].setEnabled(false);
-                    }
-                }
-            });
-        }
+    public void turn(int id) throws IOException {
+        setTurn(id);
+        publish();
     }
     /**
      * This method informs the players of the game's winner.
      * @param id    id belonging to the winner
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
-    public synchronized void win(int id) throws IOException {
-        if (id == this.id) {
-            onSwingThreadDo(new Runnable() {
-                public void run() {
-                    whoWonField.setText(name + " wins!");
-                }
-            });
+    public void win(int id) throws IOException {
+        setWinner(id);
+        publish();
+    }
+    /**
+     * This method updates the whole game at once and publishes it as a
+     * single frame.
+     * @param heaps     the amount of markers in each heap
+     * @param turn      id of the player who is taking their turn
+     * @param scores    each player's score
+     * @param winner    id belonging to the winner, or -1 if the game is not
+     *                  over
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public void state(int[] heaps, int turn, int[] scores, int winner)
+            throws IOException {
+        // pxr - the server's heaps replace the board's, so it can shrink
+        this.heaps = heaps.clone();
+        for (int i = 0; i < scores.length; i++) {
+            this.scores[i] = scores[i];
+        }
+        if (winner >= 0) {
+            setWinner(winner);
         } else {
-            onSwingThreadDo(new Runnable() {
-                public void run() {
-                    whoWonField.setText(theirName + " wins!");
+            setTurn(turn);
+        }
+        publish();
+    }
+    /**
+     * pxr - Sets the markers of a heap, growing the board's heaps if needed.
+     * @param heapId    the id of the heap
+     * @param markers   the amount of markers in the heap
+     */
+    private void setHeap(int heapId, int markers) {
+        if (heapId >= heaps.length) {
+            heaps = Arrays.copyOf(heaps, heapId + 1);
+        }
+        heaps[heapId] = markers;
+    }
+    /**
+     * pxr - Notes whose turn it is.
+     * @param id    id of the player who is taking their turn
+     */
+    private void setTurn(int id) {
+        myTurn = id == this.id;
+        over = false;
+        canRestart = myTurn || !spectator;
+        // pxr - with more than two players, say whose turn it is
+        status = !myTurn && names[2] != null ? names[id] + "'s turn" : "";
+    }
+    /**
+     * pxr - Notes the game's winner.
+     * @param id    id belonging to the winner
+     */
+    private void setWinner(int id) {
+        over = true;
+        status = (isMine(id) ? name : names[id]) + " wins!";
+    }
+    /**
+     * pxr - Publishes a frame of the game to the Swing thread. Only the
+     * first frame published since the Swing thread last took one queues a
+     * task; later ones replace it, so the reader thread never waits. Once the
+     * turn has passed or the game is over, the frame resolves this player's
+     * moves so far.
+     */
+    private void publish() {
+        if (!myTurn || over) {
+            resolved = moveSeq;
+        }
+        int mine = spectator ? 0 : id;
+        Frame frame = new Frame(heaps.clone(), myTurn, canRestart,
+                name == null ? "" : name + " = " + scores[mine], others(),
+                status, resolved);
+        if (pending.getAndSet(frame) == null) {
+            SwingUtilities.invokeLater(showPending);
+        }
+    }
+    /**
+     * pxr - Shows a frame of the game. A frame that resolves the move shown
+     * ahead of the server replaces it, whether the server took the move or
+     * not. Runs on the Swing thread.
+     * @param frame the frame
+     */
+    private void show(Frame frame) {
+        shown = frame;
+        if (predicted != 0 && frame.resolved >= predicted) {
+            predicted = 0;
+            rollbackTimer.stop();
+        }
+        render();
+    }
+    /**
+     * pxr - Shows a move before the server answers it: the markers leave the
+     * heap and the heaps are disabled. The move gets the next sequence
+     * number. Runs on the Swing thread.
+     * @param heapId    id of heap from which markers are taken
+     * @param markers   how many markers are taken
+     */
+    private void predict(int heapId, int markers) {
+        if (shown == null) {
+            return;
+        }
+        predicted = moveSeq + 1;
+        moveSeq = predicted;
+        predictedHeap = heapId;
+        predictedMarkers = markers;
+        rollbackTimer.restart();
+        render();
+    }
+    /**
+     * pxr - Paints the last frame with the unanswered move, if any, on top.
+     * Swing merges the repaints of the changed widgets into one. Runs on the
+     * Swing thread.
+     */
+    private void render() {
+        Frame frame = shown;
+        fitBoard(frame.heaps);
+        for (int i = 0; i < frame.heaps.length; i++) {
+            int markers = frame.heaps[i];
+            if (predicted != 0 && i == predictedHeap) {
+                markers = Math.max(0, markers - predictedMarkers);
+            }
+            heapPanel[i].setCount(markers);
+        }
+        for (int i = 0; i < heapPanel.length; i++) {
+            heapPanel[i].setEnabled(frame.myTurn && predicted == 0);
+        }
+        myNameField.setText(frame.mine);
+        theirNameField.setText(frame.others);
+        whoWonField.setText(frame.status);
+        newGameButton.setEnabled(frame.canRestart);
+    }
+    /**
+     * pxr - Gives the board one heap panel per heap, for sessions that play
+     * with fewer, more or larger heaps than the board has. The heaps are
+     * rebuilt with the height of the largest heap and keep their markers.
+     * Runs on the Swing thread.
+     * @param heaps the amount of markers in each heap
+     */
+    private void fitBoard(int[] heaps) {
+        boolean fits = heaps.length == heapPanel.length;
+        int maxCount = 0;
+        for (int i = 0; i < heaps.length; i++) {
+            fits = fits && heaps[i] <= heapPanel[i].maxCount;
+            maxCount = Math.max(maxCount, heaps[i]);
+        }
+        if (fits) {
+            return;
+        }
+        HeapPanel[] old = heapPanel;
+        for (HeapPanel heap : old) {
+            maxCount = Math.max(maxCount, heap.maxCount);
+        }
+        heapPanel = new HeapPanel[heaps.length];
+        heapBox.removeAll();
+        for (int i = 0; i < heapPanel.length; i++) {
+            heapPanel[i] = new HeapPanel(i, maxCount);
+            heapPanel[i].setListener(heapListener);
+            if (i < old.length) {
+                heapPanel[i].setCount(old[i].count);
+                heapPanel[i].setEnabled(old[i].isEnabled);
+            } else {
+                heapPanel[i].setEnabled(false);
+            }
+            heapBox.add(heapPanel[i]);
+            heapBox.add(Box.createHorizontalStrut(GAP));
+        }
+        frame.pack();
+    }
+    /**
+     * pxr - Lists the names and scores of everyone but this player.
+     * @return  the text of the other players' field
+     */
+    private String others() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < MAXPLAYERS; i++) {
+            if (names[i] != null && !isMine(i)) {
+                if (text.length() > 0) {
+                    text.append(", ");
                 }
-            });
+                text.append(names[i]).append(" = ").append(scores[i]);
+            }
         }
+        return text.toString();
+    }
+    /**
+     * pxr - Checks whether a player's name and score belong in this player's
+     * field. A spectator shows the first player there.
+     * @param id    the player's id
+     * @return  true for this player's field, false for the other one
+     */
+    private boolean isMine(int id) {
+        return spectator ? id == 0 : id == this.id;
     }
     /**
      * This method informs the player that the other player quit by closing
@@ -1,11 +1,8 @@
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.io.UTFDataFormatException;
 import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 /**
  * The NimViewProxy class manages the connection between the server and client
  * and relays messages between them.
@@ -14,20 +11,71 @@ import java.net.SocketAddress;
  * @version 2015-12-08
  */
 public class NimViewProxy implements ModelListener {
-    private DatagramSocket mailbox;
+    /** How long a client may stay silent before it is evicted, in ms. */
+    static final long IDLE_TIMEOUT = 30000;
+    MailboxManager manager;
+    /** The number of players the client asked for, or 0 for the default. */
+    int players;
+    /** True if the client asked to play against bots. */
+    boolean bots;
+    private Outbox outbox;
     private SocketAddress clientAddress;
     private ViewListener viewListener;
+    private ByteBuffer out = ByteBuffer.allocate(NimCodec.MAX_FRAME);
+    private long claimed = -1;
+    private ByteBuffer current;
+    private ReliableLink link;
+    private ReliableLink.Receiver receiver;
+    private boolean discard;
+    private boolean closed;
+    private long lastHeard = TimerWheel.now();
+    private TimerWheel.Timer idleTimer = new TimerWheel.Timer() {
+        protected void expire(long now) throws IOException {
+            if (closed) {
+                return;
+            }
+            if (now - lastHeard < IDLE_TIMEOUT) {
+                manager.timers().schedule(this, lastHeard + IDLE_TIMEOUT);
+            } else {
+                evict();
+            }
+        }
+    };
     /**
      * Constructor
-     * @param mailbox    The mailbox where messages are sent through
+     * @param outbox     The outbox of the mailbox messages are sent through
      * @param clientAddress The client's address, the destination for messages
      *                      from the model
-     * @throws IOException  Thrown when I/O fails or is interrupted
      */
-    public NimViewProxy(DatagramSocket mailbox, SocketAddress clientAddress) {
-        this.mailbox = mailbox;
+    public NimViewProxy(Outbox outbox, SocketAddress clientAddress) {
+        this.outbox = outbox;
         this.clientAddress = clientAddress;
     }
+    /**
+     * Starts watching the client for silence. A client that sends nothing,
+     * not even a heartbeat, for IDLE_TIMEOUT is evicted.
+     * @param timers    the timer wheel of the proxy's shard
+     */
+    void watch(TimerWheel timers) {
+        timers.schedule(idleTimer, lastHeard + IDLE_TIMEOUT);
+    }
+    /**
+     * Returns the client's address.
+     * @return  the destination for messages from the model
+     */
+    SocketAddress clientAddress() {
+        return clientAddress;
+    }
+    /**
+     * Evicts a silent client. The proxy leaves the mailbox manager and its
+     * session ends as if the client had quit, which tells the other player.
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    void evict() throws IOException {
+        closed = true;
+        manager.evict(clientAddress);
+        viewListener.quit();
+    }
     /**
      * Sets the ViewProxy's viewListener
      * @param viewListener The view listener that messages will go through
@@ -42,13 +90,8 @@ public class NimViewProxy implements ModelListener {
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
     public void id(int id) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream out = new DataOutputStream (baos);
-        out.writeByte('I');
-        out.writeByte(id);
-        out.close();
-        byte[] message = baos.toByteArray();
-        mailbox.send(new DatagramPacket(message, message.length, clientAddress));
+        NimCodec.putId(frame(), id);
+        send();
     }
     /**
      * This method sets the player names. Scores initialized to 0.
@@ -57,14 +100,8 @@ public class NimViewProxy implements ModelListener {
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
     public void name(int id, String name) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream out = new DataOutputStream (baos);
-        out.writeByte('N');
-        out.writeByte(id);
-        out.writeUTF(name);
-        out.close();
-        byte[] message = baos.toByteArray();
-        mailbox.send(new DatagramPacket(message, message.length, clientAddress));
+        NimCodec.putName(frame(), id, name);
+        send();
     }
     /**
      * This method sets the player scores.
@@ -73,14 +110,8 @@ public class NimViewProxy implements ModelListener {
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
     public void score(int id, int score) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream out = new DataOutputStream (baos);
-        out.writeByte('S');
-        out.writeByte(id);
-        out.writeByte(score);
-        out.close();
-        byte[] message = baos.toByteArray();
-        mailbox.send(new DatagramPacket(message, message.length, clientAddress));
+        NimCodec.putScore(frame(), id, score);
+        send();
     }
     /**
      * This method updates the state of a heap.
@@ -89,14 +120,8 @@ public class NimViewProxy implements ModelListener {
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
     public void heap(int heapId, int markers) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream out = new DataOutputStream (baos);
-        out.writeByte('H');
-        out.writeByte(heapId);
-        out.writeByte(markers);
-        out.close();
-        byte[] message = baos.toByteArray();
-        mailbox.send(new DatagramPacket(message, message.length, clientAddress));
+        NimCodec.putHeap(frame(), heapId, markers);
+        send();
     }
     /**
      * This method tells the players whose turn it is. The heap is disabled
@@ -105,13 +130,8 @@ public class NimViewProxy implements ModelListener {
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
     public void turn(int id) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream out = new DataOutputStream (baos);
-        out.writeByte('T');
-        out.writeByte(id);
-        out.close();
-        byte[] message = baos.toByteArray();
-        mailbox.send(new DatagramPacket(message, message.length, clientAddress));
+        NimCodec.putTurn(frame(), id);
+        send();
     }
     /**
      * This method informs the players of the game's winner.
@@ -119,13 +139,22 @@ public class NimViewProxy implements ModelListener {
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
     public void win(int id) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream out = new DataOutputStream (baos);
-        out.writeByte('W');
-        out.writeByte(id);
-        out.close();
-        byte[] message = baos.toByteArray();
-        mailbox.send(new DatagramPacket(message, message.length, clientAddress));
+        NimCodec.putWin(frame(), id);
+        send();
+    }
+    /**
+     * This method updates the whole game state in a single datagram.
+     * @param heaps     the amount of markers in each heap
+     * @param turn      id of the player who is taking their turn
+     * @param scores    each player's score
+     * @param winner    id belonging to the winner, or -1 if the game is not
+     *                  over
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public void state(int[] heaps, int turn, int[] scores, int winner)
+            throws IOException {
+        NimCodec.putState(frame(), heaps, turn, scores, winner);
+        send();
     }
     /**
      * This method informs the player that the other player quit by closing
@@ -133,46 +162,148 @@ public class NimViewProxy implements ModelListener {
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
     public void quit() throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream out = new DataOutputStream (baos);
-        out.writeByte('Q');
-        out.close();
-        byte[] message = baos.toByteArray();
-        mailbox.send(new DatagramPacket(message, message.length, clientAddress));
+        NimCodec.putQuit(frame());
+        send();
     }
     /**
-     * The process method receives a datagram and updates the model with actions
-     * corresponding to the received message.
-     * @param datagram  The packet of information from the view
+     * The process method decodes a datagram in place and updates the model
+     * with actions corresponding to the received message. A client that sends
+     * reliable frames gets a reliable link, and every later message to it is
+     * sent through the link. An empty datagram is a bad message.
+     * @param datagram  The contents of the datagram from the view
      * @return  true if this view can be subsequently ignored, otherwise false
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
-    public boolean process(DatagramPacket datagram) throws IOException {
-        boolean discard = false;
-        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
-                datagram.getData(), 0, datagram.getLength()));
-        byte b = in.readByte();
-        switch (b) {
-        case 'J':
-            String name = in.readUTF();
-            viewListener.join(NimViewProxy.this, name);
-            break;
-        case 'T':
-            int heapId = in.readByte();
-            int markers = in.readByte();
-            viewListener.take(heapId, markers);
-            break;
-        case 'N':
-            viewListener.newGame();
-            break;
-        case 'Q':
-            discard = true;
-            viewListener.quit();
-            break;
-        default:
+    public boolean process(ByteBuffer datagram) throws IOException {
+        discard = false;
+        lastHeard = TimerWheel.now();
+        if (!datagram.hasRemaining()) {
+            manager.metrics().badMessage();
+            System.err.println("Bad message");
+            return discard;
+        }
+        try {
+            if (ReliableLink.isReliable(datagram)) {
+                // the frames it carries are counted as they are delivered,
+                // like the frames sent through the link
+                if (link == null) {
+                    link = new ReliableLink(new ReliableLink.Transport() {
+                        public void transmit(ByteBuffer frame)
+                                throws IOException {
+                            outbox.send(frame, clientAddress);
+                        }
+                        // a client that stopped acknowledging is gone
+                        public void failed() throws IOException {
+                            if (!closed) {
+                                evict();
+                            }
+                        }
+                    }, manager.timers(), 0);
+                    receiver = new ReliableLink.Receiver() {
+                        public void deliver(ByteBuffer frame)
+                                throws IOException {
+                            processFrame(frame);
+                        }
+                    };
+                }
+                link.receive(datagram, receiver);
+            } else {
+                processFrame(datagram);
+            }
+        } catch (BufferUnderflowException exc) {
+            manager.metrics().badMessage();
             System.err.println("Bad message");
-            break;
         }
         return discard;
     }
+    /**
+     * Decodes one message in place and calls the corresponding method of the
+     * view listener.
+     * @param frame The message
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    private void processFrame(ByteBuffer frame) throws IOException {
+        try {
+            byte b = frame.get();
+            manager.metrics().inbound(b);
+            switch (b) {
+            case NimCodec.JOIN:
+                String name = NimCodec.getUTF(frame);
+                players = frame.hasRemaining() ? frame.get() : 0;
+                bots = frame.hasRemaining()
+                        && frame.get() == NimCodec.WITH_BOTS;
+                viewListener.join(NimViewProxy.this, name);
+                break;
+            case NimCodec.TAKE:
+                int heapId = NimCodec.getVarint(frame);
+                int markers = NimCodec.getVarint(frame);
+                long received = System.nanoTime();
+                viewListener.take(heapId, markers);
+                // a relayed move is timed by the relay once its session ran it
+                if (viewListener instanceof NimModel) {
+                    manager.metrics().move(received);
+                }
+                break;
+            case NimCodec.MULTI_TAKE:
+                int[] takes = NimCodec.getList(frame, null);
+                received = System.nanoTime();
+                viewListener.take(takes);
+                if (viewListener instanceof NimModel) {
+                    manager.metrics().move(received);
+                }
+                break;
+            case NimCodec.NEW_GAME:
+                viewListener.newGame();
+                break;
+            case NimCodec.WATCH:
+                viewListener.watch(NimViewProxy.this,
+                        NimCodec.getUTF(frame));
+                break;
+            case NimCodec.QUIT:
+                discard = true;
+                closed = true;
+                viewListener.quit();
+                break;
+            case NimCodec.HEARTBEAT:
+                break;
+            default:
+                manager.metrics().badMessage();
+                System.err.println("Bad message");
+                break;
+            }
+        } catch (BufferUnderflowException | UTFDataFormatException exc) {
+            manager.metrics().badMessage();
+            System.err.println("Bad message");
+        }
+    }
+    /**
+     * Returns an empty buffer for the next frame. Without a reliable link the
+     * frame is encoded straight into a slot of the outbox.
+     * @return  the outbound buffer
+     */
+    private ByteBuffer frame() {
+        if (link != null) {
+            claimed = -1;
+            current = out;
+        } else {
+            claimed = outbox.claim();
+            current = outbox.frame(claimed);
+        }
+        current.clear();
+        return current;
+    }
+    /**
+     * Queues the frame in the outbound buffer for the client, through the
+     * reliable link if the frame was encoded for it.
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    private void send() throws IOException {
+        manager.metrics().outbound(current.get(0));
+        if (claimed < 0) {
+            out.flip();
+            link.send(out);
+        } else {
+            outbox.publish(claimed, clientAddress);
+        }
+    }
 }
@@ -0,0 +1,266 @@
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+/**
+ * The Outbox class queues the datagrams sent through one mailbox, so the
+ * threads that produce them never wait on the socket. Frames are encoded
+ * straight into the slots of a bounded ring, and a sender thread drains every
+ * published slot in one batch through the non-blocking mailbox before it
+ * parks again.
+ * <P>
+ * Any number of threads may publish frames. A producer claims a slot by
+ * advancing the tail with a compare-and-set, encodes its frame into the
+ * slot's buffer and publishes it by setting the slot's sequence number, which
+ * the sender waits for in ring order. When the ring is full, producers wait
+ * for the sender to free a slot; when the socket buffer is full, the sender
+ * waits until the mailbox is writable. Both cases are counted.
+ * <P>
+ * A frame for many addresses, such as an update for the spectators of a
+ * game, is encoded once into its own buffer and every slot that sends it
+ * refers to that buffer instead of holding a copy.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public class Outbox {
+    private static final int CAPACITY = 1024;
+    private static final int MASK = CAPACITY - 1;
+    private static final long FULL_WAIT = 50000L;
+
+    private DatagramChannel mailbox;
+    private ByteBuffer[] frames = new ByteBuffer[CAPACITY];
+    private SocketAddress[] targets = new SocketAddress[CAPACITY];
+    private ByteBuffer[] shared = new ByteBuffer[CAPACITY];
+    private AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private AtomicLong tail = new AtomicLong();
+    // only advanced by the sender thread
+    private volatile long head;
+    private Selector writable;
+    private volatile Thread sender;
+    private volatile boolean parked;
+    // backpressure counters
+    private AtomicLong fullWaits = new AtomicLong();
+    private volatile long blockedSends;
+    private volatile long sent;
+    private volatile long batches;
+    /**
+     * Constructor. Constructs an empty outbox. The outbox sends nothing until
+     * start() is called.
+     * @param mailbox   the non-blocking mailbox the frames are sent through
+     */
+    public Outbox(DatagramChannel mailbox) {
+        this.mailbox = mailbox;
+        ByteBuffer ring = ByteBuffer.allocateDirect(
+                CAPACITY * NimCodec.MAX_FRAME);
+        for (int i = 0; i < CAPACITY; i++) {
+            ring.limit((i + 1) * NimCodec.MAX_FRAME);
+            ring.position(i * NimCodec.MAX_FRAME);
+            frames[i] = ring.slice();
+            sequences.set(i, i);
+        }
+    }
+    /**
+     * Claims the next slot of the ring, waiting for the sender if the ring is
+     * full. The slot must be published with publish().
+     * @return  the position of the claimed slot
+     */
+    public long claim() {
+        long position = tail.get();
+        boolean waited = false;
+        while(true) {
+            long distance = sequences.get((int) position & MASK) - position;
+            if (distance == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+            } else if (distance < 0) {
+                // the slot still holds a frame from the previous lap
+                if (!waited) {
+                    fullWaits.incrementAndGet();
+                    waited = true;
+                }
+                wakeSender();
+                LockSupport.parkNanos(FULL_WAIT);
+            }
+            position = tail.get();
+        }
+    }
+    /**
+     * Returns the empty buffer of a claimed slot, into which the frame is
+     * encoded.
+     * @param position  the position returned by claim()
+     * @return  the slot's buffer, cleared
+     */
+    public ByteBuffer frame(long position) {
+        ByteBuffer frame = frames[(int) position & MASK];
+        frame.clear();
+        return frame;
+    }
+    /**
+     * Publishes a claimed slot, whose buffer holds the encoded frame between
+     * its start and its position, so the sender sends it.
+     * @param position  the position returned by claim()
+     * @param target    the address the frame is sent to
+     */
+    public void publish(long position, SocketAddress target) {
+        int index = (int) position & MASK;
+        frames[index].flip();
+        targets[index] = target;
+        sequences.set(index, position + 1);
+        if (parked) {
+            wakeSender();
+        }
+    }
+    /**
+     * Copies a frame into the next slot and publishes it.
+     * @param frame     the frame, from its position to its limit
+     * @param target    the address the frame is sent to
+     */
+    public void send(ByteBuffer frame, SocketAddress target) {
+        long position = claim();
+        frame(position).put(frame);
+        publish(position, target);
+    }
+    /**
+     * Publishes one frame for many addresses. The frame is not copied; it
+     * must not change once it has been handed to the outbox.
+     * @param frame     the frame, from its start to its limit
+     * @param targets   the addresses the frame is sent to
+     * @param count     the number of addresses
+     */
+    public void sendAll(ByteBuffer frame, SocketAddress[] targets,
+            int count) {
+        for (int i = 0; i < count; i++) {
+            long position = claim();
+            int index = (int) position & MASK;
+            shared[index] = frame;
+            this.targets[index] = targets[i];
+            sequences.set(index, position + 1);
+        }
+        if (parked) {
+            wakeSender();
+        }
+    }
+    /**
+     * Starts the daemon thread that sends the published frames.
+     * @param name  the name of the thread
+     * @throws IOException  Thrown when the selector cannot be opened
+     */
+    public void start(String name) throws IOException {
+        writable = Selector.open();
+        mailbox.register(writable, SelectionKey.OP_WRITE);
+        Thread thread = new Thread(name) {
+            public void run() {
+                while(true) {
+                    if (drain() == 0) {
+                        parked = true;
+                        if (!published(head)) {
+                            LockSupport.park(Outbox.this);
+                        }
+                        parked = false;
+                    }
+                }
+            }
+        };
+        thread.setDaemon(true);
+        sender = thread;
+        thread.start();
+    }
+    /**
+     * Sends every frame that has been published, in ring order, and frees
+     * their slots. A frame that cannot be sent is reported and dropped.
+     * @return  the number of frames sent
+     */
+    private int drain() {
+        int count = 0;
+        while (published(head)) {
+            int index = (int) head & MASK;
+            ByteBuffer frame = shared[index];
+            if (frame == null) {
+                frame = frames[index];
+            } else {
+                frame.position(0);
+            }
+            try {
+                while (mailbox.send(frame, targets[index]) == 0) {
+                    blockedSends++;
+                    writable.select();
+                    writable.selectedKeys().clear();
+                }
+            } catch (IOException | RuntimeException exc) {
+                // a frame that fails must not stop the sender, or producers
+                // would wait forever for its slot
+                exc.printStackTrace(System.err);
+            }
+            targets[index] = null;
+            shared[index] = null;
+            sequences.set(index, head + CAPACITY);
+            head++;
+            count++;
+        }
+        if (count > 0) {
+            sent += count;
+            batches++;
+        }
+        return count;
+    }
+    /**
+     * Checks whether the slot at a position has been published.
+     * @param position  the position
+     * @return  true if the slot holds a frame ready to send
+     */
+    private boolean published(long position) {
+        return sequences.get((int) position & MASK) == position + 1;
+    }
+    /**
+     * Unparks the sender thread.
+     */
+    private void wakeSender() {
+        Thread thread = sender;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+    /**
+     * Returns how many times a producer found the ring full and had to wait.
+     * @return  the number of waits
+     */
+    public long fullWaits() {
+        return fullWaits.get();
+    }
+    /**
+     * Returns how many times the socket buffer was full and the sender had to
+     * wait for the mailbox to become writable.
+     * @return  the number of blocked sends
+     */
+    public long blockedSends() {
+        return blockedSends;
+    }
+    /**
+     * Returns the number of frames sent.
+     * @return  the number of frames
+     */
+    public long sent() {
+        return sent;
+    }
+    /**
+     * Returns the number of batches the sender drained.
+     * @return  the number of batches
+     */
+    public long batches() {
+        return batches;
+    }
+    /**
+     * Returns the number of frames waiting to be sent.
+     * @return  the number of queued frames
+     */
+    public int queued() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+}
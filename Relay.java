@@ -0,0 +1,97 @@
+import java.io.IOException;
+/**
+ * The Relay class is a view listener that hands every message for a session
+ * to the session's owner instead of calling the session directly. A proxy
+ * whose session is owned by another thread sends its messages through a
+ * relay.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public class Relay implements ViewListener {
+    private TaskQueue owner;
+    private ViewListener session;
+    private ServerMetrics metrics;
+    /**
+     * Constructor.
+     * @param owner     the owner of the session
+     * @param session   the session the messages are for
+     * @param metrics   the metrics that time the relayed moves
+     */
+    public Relay(TaskQueue owner, ViewListener session,
+            ServerMetrics metrics) {
+        this.owner = owner;
+        this.session = session;
+        this.metrics = metrics;
+    }
+    /**
+     * The join method sends the players name and a model listener to the
+     * server in order to be placed in a game session.
+     * @param proxy A reference to the view proxy object for the client
+     * @param name  The player's name
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public void join(final NimViewProxy proxy, final String name)
+            throws IOException {
+        owner.execute(new TaskQueue.Task() {
+            public void run() throws IOException {
+                session.join(proxy, name);
+            }
+        });
+    }
+    /**
+     * This method tells the server what move the player made. The move is
+     * timed until the session has sent its updates.
+     * @param heapId    id of heap from which markers were taken
+     * @param markers   how many markers were taken
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public void take(final int heapId, final int markers) throws IOException {
+        final long received = System.nanoTime();
+        owner.execute(new TaskQueue.Task() {
+            public void run() throws IOException {
+                session.take(heapId, markers);
+                metrics.move(received);
+            }
+        });
+    }
+    /**
+     * This method tells the server what move the player made, as the markers
+     * taken from each heap. The move is timed until the session has sent its
+     * updates.
+     * @param takes the markers taken from each heap
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public void take(final int[] takes) throws IOException {
+        final long received = System.nanoTime();
+        owner.execute(new TaskQueue.Task() {
+            public void run() throws IOException {
+                session.take(takes);
+                metrics.move(received);
+            }
+        });
+    }
+    /**
+     * This method informs the server that a player would like to start a new
+     * game.
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public void newGame() throws IOException {
+        owner.execute(new TaskQueue.Task() {
+            public void run() throws IOException {
+                session.newGame();
+            }
+        });
+    }
+    /**
+     * This method informs the server that a player has terminated the program.
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public void quit() throws IOException {
+        owner.execute(new TaskQueue.Task() {
+            public void run() throws IOException {
+                session.quit();
+            }
+        });
+    }
+}
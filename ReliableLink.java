@@ -0,0 +1,383 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+/**
+ * The ReliableLink class adds sequencing, acknowledgement and retransmission
+ * to the datagrams exchanged with one peer. It sits under a proxy: the proxy
+ * hands it encoded frames to send and the frames it receives, and the link
+ * delivers each frame exactly once and in order.
+ * <P>
+ * Every reliable frame carries the link's epoch, its sequence number, the
+ * highest sequence number received in order and a bitmask of the frames
+ * received beyond it, so acknowledgements ride along with normal traffic. A
+ * pure acknowledgement is only sent when no frame went out within a short
+ * delay. Unacknowledged frames are retransmitted after a timeout estimated
+ * from the round trip time. All timeouts of all links on a thread share one
+ * timer wheel.
+ * <P>
+ * Frames sent while WINDOW frames await acknowledgement wait in a backlog of
+ * up to BACKLOG frames. A link whose backlog overflows, or whose frame goes
+ * unacknowledged through MAX_RETRIES retransmissions, has lost its peer: the
+ * peer could never deliver anything after the missing frame. The link
+ * fails, drops every frame it holds and sends nothing more, and tells its
+ * transport on the thread that owns its timer wheel. Sending never throws
+ * because the peer stopped answering.
+ * <P>
+ * The client picks a random epoch when it starts. The server adopts the epoch
+ * of the first frame it receives and starts over when the epoch changes, which
+ * happens when a client restarts on the same address.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public class ReliableLink {
+    private static final int WINDOW = 32;
+    private static final int BACKLOG = 64;
+    private static final int HEADER = 17;
+    private static final long ACK_DELAY = 20;
+    private static final long MIN_RTO = 100;
+    private static final long MAX_RTO = 4000;
+    private static final int MAX_RETRIES = 10;
+
+    private Transport transport;
+    private TimerWheel timers;
+    private int epoch;
+    private boolean adopting;
+    private ByteBuffer out = ByteBuffer.allocate(NimCodec.MAX_FRAME + HEADER);
+    // send side, guarded by this
+    private Slot[] sent = new Slot[WINDOW];
+    private int base = 1;
+    private int nextSeq = 1;
+    private long srtt;
+    private long rttvar;
+    private long rto = 1000;
+    private ArrayDeque<ByteBuffer> backlog = new ArrayDeque<ByteBuffer>();
+    private boolean failed;
+    // receive side, only touched by the receiving thread
+    private Slot[] received = new Slot[WINDOW];
+    private volatile long acks;
+    private volatile boolean ackPending;
+
+    private TimerWheel.Timer retransmitTimer = new TimerWheel.Timer() {
+        protected void expire(long now) throws IOException {
+            retransmit(now);
+        }
+    };
+    private TimerWheel.Timer failTimer = new TimerWheel.Timer() {
+        protected void expire(long now) throws IOException {
+            transport.failed();
+        }
+    };
+    private TimerWheel.Timer ackTimer = new TimerWheel.Timer() {
+        protected void expire(long now) throws IOException {
+            if (ackPending) {
+                sendAck();
+            }
+        }
+    };
+    /**
+     * Constructor.
+     * @param transport the transport that carries this link's datagrams
+     * @param timers    the timer wheel for this link's timeouts
+     * @param epoch     the epoch of this link, or 0 to adopt the peer's epoch
+     */
+    public ReliableLink(Transport transport, TimerWheel timers, int epoch) {
+        this.transport = transport;
+        this.timers = timers;
+        this.epoch = epoch;
+        this.adopting = epoch == 0;
+    }
+    /**
+     * Checks whether a frame belongs to the reliability layer.
+     * @param frame the frame, positioned at its message type
+     * @return  true if the frame must be passed to receive, false for an
+     *          empty frame
+     */
+    public static boolean isReliable(ByteBuffer frame) {
+        if (!frame.hasRemaining()) {
+            return false;
+        }
+        byte b = frame.get(frame.position());
+        return b == NimCodec.RELIABLE || b == NimCodec.ACK;
+    }
+    /**
+     * Sends a frame reliably, or queues it while the window is full. A failed
+     * link drops the frame.
+     * @param frame the encoded frame, from its position to its limit
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public synchronized void send(ByteBuffer frame) throws IOException {
+        if (failed) {
+            return;
+        }
+        if (nextSeq - base >= WINDOW) {
+            if (backlog.size() == BACKLOG) {
+                fail();
+                return;
+            }
+            ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+            copy.put(frame).flip();
+            backlog.add(copy);
+            return;
+        }
+        post(frame);
+    }
+    /**
+     * Gives a frame the next sequence number and transmits it.
+     * @param frame the encoded frame, from its position to its limit
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    private void post(ByteBuffer frame) throws IOException {
+        int seq = nextSeq++;
+        Slot slot = slot(sent, seq);
+        slot.seq = seq;
+        slot.acked = false;
+        slot.retries = 0;
+        slot.data.clear();
+        slot.data.put(frame);
+        slot.data.flip();
+        long now = TimerWheel.now();
+        slot.sentAt = now;
+        slot.deadline = now + rto;
+        transmit(slot);
+        timers.schedule(retransmitTimer, slot.deadline);
+    }
+    /**
+     * Processes a frame of the reliability layer and delivers the frames that
+     * are now in order.
+     * @param in        the frame, positioned at its message type
+     * @param receiver  the receiver of the delivered frames
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public void receive(ByteBuffer in, Receiver receiver) throws IOException {
+        byte type = in.get();
+        int frameEpoch = in.getInt();
+        if (frameEpoch != epoch) {
+            if (!adopting) {
+                return;
+            }
+            reset(frameEpoch);
+        }
+        int seq = type == NimCodec.RELIABLE ? in.getInt() : 0;
+        acknowledged(in.getInt(), in.getInt());
+        if (type != NimCodec.RELIABLE) {
+            return;
+        }
+        long packed = acks;
+        int ack = (int) (packed >>> 32);
+        int bits = (int) packed;
+        int distance = seq - ack;
+        if (distance == 1) {
+            receiver.deliver(in);
+            ack++;
+            bits >>>= 1;
+            while ((bits & 1) != 0) {
+                ack++;
+                bits >>>= 1;
+                Slot slot = slot(received, ack);
+                slot.data.position(0);
+                receiver.deliver(slot.data);
+            }
+        } else if (distance > 1 && distance <= WINDOW
+                && (bits & (1 << (distance - 1))) == 0) {
+            Slot slot = slot(received, seq);
+            slot.data.clear();
+            slot.data.put(in);
+            slot.data.flip();
+            bits |= 1 << (distance - 1);
+        }
+        // duplicates and frames beyond the window are acknowledged again
+        acks = ((long) ack << 32) | (bits & 0xFFFFFFFFL);
+        ackPending = true;
+        timers.schedule(ackTimer, TimerWheel.now() + ACK_DELAY);
+    }
+    /**
+     * Starts the link over with a new epoch, dropping all frames in flight.
+     * Only a link that adopts its peer's epoch is ever reset.
+     * @param newEpoch  the peer's epoch
+     */
+    private synchronized void reset(int newEpoch) {
+        epoch = newEpoch;
+        failed = false;
+        backlog.clear();
+        base = 1;
+        nextSeq = 1;
+        acks = 0;
+        ackPending = false;
+    }
+    /**
+     * Releases the sent frames the peer has acknowledged, samples the round
+     * trip time from frames that were not retransmitted and sends the
+     * backlog as far as the window allows.
+     * @param ack   the highest sequence number the peer received in order
+     * @param bits  the frames the peer received beyond ack
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    private synchronized void acknowledged(int ack, int bits)
+            throws IOException {
+        long now = TimerWheel.now();
+        for (int seq = base; seq - nextSeq < 0; seq++) {
+            Slot slot = slot(sent, seq);
+            int distance = seq - ack;
+            if (!slot.acked && (distance <= 0 || (distance <= WINDOW
+                    && (bits & (1 << (distance - 1))) != 0))) {
+                slot.acked = true;
+                if (slot.retries == 0) {
+                    sample(now - slot.sentAt);
+                }
+            }
+        }
+        while (base - nextSeq < 0 && slot(sent, base).acked) {
+            base++;
+        }
+        while (!backlog.isEmpty() && nextSeq - base < WINDOW) {
+            post(backlog.poll());
+        }
+    }
+    /**
+     * Fails the link: every frame in flight or in the backlog is dropped,
+     * nothing is sent any more, and the transport is told once the timer
+     * wheel's owner gets to it, outside of any caller's locks.
+     */
+    private void fail() {
+        failed = true;
+        base = nextSeq;
+        backlog.clear();
+        timers.schedule(failTimer, TimerWheel.now());
+    }
+    /**
+     * Updates the retransmit timeout from a round trip time sample.
+     * @param rtt   the round trip time in milliseconds
+     */
+    private void sample(long rtt) {
+        if (srtt == 0) {
+            srtt = rtt;
+            rttvar = rtt / 2;
+        } else {
+            rttvar = (3 * rttvar + Math.abs(srtt - rtt)) / 4;
+            srtt = (7 * srtt + rtt) / 8;
+        }
+        rto = Math.max(MIN_RTO, Math.min(MAX_RTO, srtt + 4 * rttvar));
+    }
+    /**
+     * Retransmits every frame whose timeout has passed, backing off
+     * exponentially. A frame retransmitted too often fails the link.
+     * @param now   the current time in milliseconds
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    private synchronized void retransmit(long now) throws IOException {
+        if (failed) {
+            return;
+        }
+        long next = Long.MAX_VALUE;
+        for (int seq = base; seq - nextSeq < 0; seq++) {
+            Slot slot = slot(sent, seq);
+            if (slot.acked) {
+                continue;
+            }
+            if (slot.deadline <= now) {
+                if (slot.retries == MAX_RETRIES) {
+                    fail();
+                    return;
+                }
+                slot.retries++;
+                slot.deadline = now + Math.min(MAX_RTO, rto << slot.retries);
+                transmit(slot);
+            }
+            next = Math.min(next, slot.deadline);
+        }
+        while (base - nextSeq < 0 && slot(sent, base).acked) {
+            base++;
+        }
+        if (next != Long.MAX_VALUE) {
+            timers.schedule(retransmitTimer, next);
+        }
+    }
+    /**
+     * Sends a frame with the current acknowledgement.
+     * @param slot  the slot holding the frame
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    private void transmit(Slot slot) throws IOException {
+        out.clear();
+        out.put(NimCodec.RELIABLE).putInt(epoch).putInt(slot.seq);
+        putAcks();
+        slot.data.position(0);
+        out.put(slot.data);
+        out.flip();
+        transport.transmit(out);
+    }
+    /**
+     * Sends a pure acknowledgement.
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    private synchronized void sendAck() throws IOException {
+        out.clear();
+        out.put(NimCodec.ACK).putInt(epoch);
+        putAcks();
+        out.flip();
+        transport.transmit(out);
+    }
+    /**
+     * Writes the current acknowledgement into the outbound buffer.
+     */
+    private void putAcks() {
+        ackPending = false;
+        long packed = acks;
+        out.putInt((int) (packed >>> 32)).putInt((int) packed);
+    }
+    /**
+     * Returns the slot for a sequence number, allocating its buffer on first
+     * use so idle links stay small.
+     * @param slots the send or receive window
+     * @param seq   the sequence number
+     * @return  the slot
+     */
+    private static Slot slot(Slot[] slots, int seq) {
+        int index = seq & (WINDOW - 1);
+        if (slots[index] == null) {
+            slots[index] = new Slot();
+        }
+        return slots[index];
+    }
+    /**
+     * A Slot holds one frame of the send or receive window.
+     */
+    private static class Slot {
+        private ByteBuffer data = ByteBuffer.allocate(NimCodec.MAX_FRAME);
+        private int seq;
+        private boolean acked;
+        private int retries;
+        private long sentAt;
+        private long deadline;
+    }
+    /**
+     * A Transport sends the link's datagrams to the peer.
+     */
+    public interface Transport {
+        /**
+         * Sends one datagram.
+         * @param frame the datagram, from its position to its limit
+         * @throws IOException  Thrown when I/O fails or is interrupted
+         */
+        public void transmit(ByteBuffer frame) throws IOException;
+        /**
+         * Called once the link has failed because its peer stopped
+         * acknowledging. Runs on the thread that owns the link's timer
+         * wheel.
+         * @throws IOException  Thrown when I/O fails or is interrupted
+         */
+        public void failed() throws IOException;
+    }
+    /**
+     * A Receiver processes the frames the link delivers.
+     */
+    public interface Receiver {
+        /**
+         * Processes one frame.
+         * @param frame the frame, positioned at its message type
+         * @throws IOException  Thrown when I/O fails or is interrupted
+         */
+        public void deliver(ByteBuffer frame) throws IOException;
+    }
+}
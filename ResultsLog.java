@@ -0,0 +1,249 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+/**
+ * The ResultsLog class keeps the result of every finished game in an
+ * append-only file of fixed-width records, which it maps into memory one
+ * region at a time. On startup it replays the file into a Leaderboard.
+ * <P>
+ * Sessions never write to the file themselves. append() queues the result
+ * and returns; a writer thread takes every queued result at once, copies them
+ * into the mapped region and onto the leaderboard and forces the region to
+ * disk once for the whole batch, so a burst of finished games costs one
+ * flush. The file grows one mapped region at a time.
+ * <P>
+ * A record holds the time the game finished, its duration, the winner, the
+ * heaps it started with and the names of up to MAX_PLAYERS players. Records
+ * start with a marker, so the end of the log is the first record without
+ * one.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public class ResultsLog {
+    /** The most players a record holds. */
+    public static final int MAX_PLAYERS = 8;
+    /** The most heaps a record holds. */
+    public static final int MAX_HEAPS = 16;
+    private static final int RECORD = 512;
+    private static final int MARKER = 0x4E494D52;
+    private static final int NAME_BYTES = 48;
+    private static final int HEAPS_AT = 20;
+    private static final int NAMES_AT = HEAPS_AT + 2 * MAX_HEAPS;
+    private static final int REGION = 16384 * RECORD;
+
+    private FileChannel file;
+    private MappedByteBuffer region;
+    private long regionStart;
+    private Leaderboard leaderboard = new Leaderboard();
+    private ConcurrentLinkedQueue<Result> queue =
+            new ConcurrentLinkedQueue<Result>();
+    private volatile Thread writer;
+    private volatile boolean parked;
+    private volatile long records;
+    private volatile long batches;
+    /**
+     * Constructor. Opens the log, creating it if needed, and replays its
+     * records into the leaderboard.
+     * @param path  the log file
+     * @throws IOException  Thrown when the log cannot be opened or read
+     */
+    public ResultsLog(File path) throws IOException {
+        file = FileChannel.open(path.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long position = 0;
+        map(0);
+        while(true) {
+            if (position - regionStart == REGION) {
+                map(position);
+            }
+            int offset = (int) (position - regionStart);
+            if (region.getInt(offset) != MARKER) {
+                break;
+            }
+            replay(offset);
+            position += RECORD;
+        }
+        region.position((int) (position - regionStart));
+        records = position / RECORD;
+    }
+    /**
+     * Returns the leaderboard built from this log.
+     * @return  the leaderboard
+     */
+    public Leaderboard leaderboard() {
+        return leaderboard;
+    }
+    /**
+     * Queues the result of a finished game. The caller never waits for the
+     * disk.
+     * @param names     the players' names, copied
+     * @param players   the number of players
+     * @param winner    id belonging to the winner
+     * @param heaps     the amount of markers each heap started with, copied
+     * @param duration  how long the game took, in milliseconds
+     */
+    public void append(String[] names, int players, int winner, int[] heaps,
+            long duration) {
+        Result result = new Result();
+        result.finished = System.currentTimeMillis();
+        result.duration = (int) Math.min(duration, Integer.MAX_VALUE);
+        result.players = Math.min(players, MAX_PLAYERS);
+        result.winner = winner;
+        result.names = new String[result.players];
+        System.arraycopy(names, 0, result.names, 0, result.players);
+        result.heaps = heaps.clone();
+        queue.offer(result);
+        if (parked) {
+            LockSupport.unpark(writer);
+        }
+    }
+    /**
+     * Starts the daemon thread that writes the queued results.
+     * @param name  the name of the thread
+     */
+    public void start(String name) {
+        Thread thread = new Thread(name) {
+            public void run() {
+                while(true) {
+                    try {
+                        if (writeBatch() == 0) {
+                            parked = true;
+                            if (queue.isEmpty()) {
+                                LockSupport.park(ResultsLog.this);
+                            }
+                            parked = false;
+                        }
+                    } catch (IOException exc) {
+                        exc.printStackTrace(System.err);
+                    }
+                }
+            }
+        };
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+    }
+    /**
+     * Writes every queued result and counts it on the leaderboard, then forces
+     * the batch to disk.
+     * @return  the number of results written
+     * @throws IOException  Thrown when the log cannot be written
+     */
+    private int writeBatch() throws IOException {
+        int count = 0;
+        Result result;
+        while ((result = queue.poll()) != null) {
+            if (!region.hasRemaining()) {
+                region.force();
+                map(regionStart + REGION);
+            }
+            write(result);
+            leaderboard.record(result.names, result.players, result.winner);
+            count++;
+        }
+        if (count > 0) {
+            region.force();
+            records += count;
+            batches++;
+        }
+        return count;
+    }
+    /**
+     * Writes one record at the end of the log. The marker is written last,
+     * so a record torn by a crash is never replayed. A name too long for the
+     * record is cut at a character boundary, and the result keeps the cut
+     * name, so the leaderboard counts it as the replay will.
+     * @param result    the result
+     */
+    private void write(Result result) {
+        int offset = region.position();
+        region.putInt(offset + 4, result.duration);
+        region.putLong(offset + 8, result.finished);
+        region.put(offset + 16, (byte) result.players);
+        region.put(offset + 17, (byte) result.winner);
+        region.put(offset + 18, (byte) Math.min(result.heaps.length, 255));
+        for (int h = 0; h < Math.min(result.heaps.length, MAX_HEAPS); h++) {
+            region.putShort(offset + HEAPS_AT + 2 * h,
+                    (short) Math.min(result.heaps[h], 0xFFFF));
+        }
+        for (int i = 0; i < result.players; i++) {
+            byte[] name = result.names[i].getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(name.length, NAME_BYTES - 1);
+            if (length < name.length) {
+                // back off to the start of the character that did not fit
+                while (length > 0 && (name[length] & 0xC0) == 0x80) {
+                    length--;
+                }
+                result.names[i] = new String(name, 0, length,
+                        StandardCharsets.UTF_8);
+            }
+            int at = offset + NAMES_AT + i * NAME_BYTES;
+            region.put(at, (byte) length);
+            for (int b = 0; b < length; b++) {
+                region.put(at + 1 + b, name[b]);
+            }
+        }
+        region.putInt(offset, MARKER);
+        region.position(offset + RECORD);
+    }
+    /**
+     * Counts a record of the log on the leaderboard.
+     * @param offset    the record's offset in the mapped region
+     */
+    private void replay(int offset) {
+        int players = Math.min(region.get(offset + 16), MAX_PLAYERS);
+        int winner = region.get(offset + 17);
+        String[] names = new String[players];
+        byte[] name = new byte[NAME_BYTES];
+        for (int i = 0; i < players; i++) {
+            int at = offset + NAMES_AT + i * NAME_BYTES;
+            int length = region.get(at) & 0xFF;
+            for (int b = 0; b < length; b++) {
+                name[b] = region.get(at + 1 + b);
+            }
+            names[i] = new String(name, 0, length, StandardCharsets.UTF_8);
+        }
+        leaderboard.record(names, players, winner);
+    }
+    /**
+     * Maps the region of the log that starts at the given offset, growing the
+     * file if needed.
+     * @param start the offset of the region in the file
+     * @throws IOException  Thrown when the region cannot be mapped
+     */
+    private void map(long start) throws IOException {
+        region = file.map(FileChannel.MapMode.READ_WRITE, start, REGION);
+        regionStart = start;
+    }
+    /**
+     * Returns the number of records in the log.
+     * @return  the number of records
+     */
+    public long records() {
+        return records;
+    }
+    /**
+     * Returns the number of batches the writer forced to disk.
+     * @return  the number of batches
+     */
+    public long batches() {
+        return batches;
+    }
+    /**
+     * A Result is one finished game on its way to the log.
+     */
+    private static class Result {
+        private long finished;
+        private int duration;
+        private int players;
+        private int winner;
+        private String[] names;
+        private int[] heaps;
+    }
+}
@@ -0,0 +1,94 @@
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+/**
+ * The SerialExecutor class is the private mailbox of one game session. Tasks
+ * are queued and run one at a time and in order, but on threads borrowed from
+ * a shared executor, so independent sessions progress in parallel while each
+ * session stays single-threaded.
+ * <P>
+ * The executor is only scheduled when its first task arrives, and it runs at
+ * most BATCH tasks before handing its thread back, so a busy session cannot
+ * starve the others on a small pool.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public class SerialExecutor implements TaskQueue {
+    private static final int BATCH = 64;
+    private Executor threads;
+    private ConcurrentLinkedQueue<Task> tasks =
+            new ConcurrentLinkedQueue<Task>();
+    private AtomicInteger pending = new AtomicInteger();
+    private Runnable drain = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+    /**
+     * Constructor.
+     * @param threads   the shared executor whose threads run the tasks
+     */
+    public SerialExecutor(Executor threads) {
+        this.threads = threads;
+    }
+    /**
+     * Queues a task, scheduling this executor if it was idle.
+     * @param task  the task to run
+     */
+    public void execute(Task task) {
+        tasks.offer(task);
+        if (pending.getAndIncrement() == 0) {
+            threads.execute(drain);
+        }
+    }
+    /**
+     * Runs queued tasks until the queue is empty or a batch has run, and
+     * schedules this executor again if tasks remain. A task that fails is
+     * reported and dropped.
+     */
+    private void drain() {
+        for (int i = 0; i < BATCH; i++) {
+            try {
+                tasks.poll().run();
+            } catch (IOException | RuntimeException exc) {
+                // a failing task must not stop the drain, or pending would
+                // never reach zero and the session would never run again
+                exc.printStackTrace(System.err);
+            }
+            if (pending.decrementAndGet() == 0) {
+                return;
+            }
+        }
+        threads.execute(drain);
+    }
+    /**
+     * Creates the shared executor for session tasks. It starts a virtual
+     * thread per task where the platform has virtual threads, and otherwise
+     * is a pool with one daemon thread per processor.
+     * @return  the shared executor
+     */
+    public static Executor sessionThreads() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException exc) {
+            final AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable,
+                                    "session-" + count.getAndIncrement());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,165 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+/**
+ * The ServerMetrics class collects the server's metrics. Counters are striped
+ * LongAdders and move latencies go into a lock-free histogram, so recording
+ * costs an uncontended increment and can stay on in the receive loop. Gauges
+ * such as the proxy tables are only read when the metrics are queried.
+ * <P>
+ * One instance is shared by all shards and published over JMX by NimServer.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+    private static final int TYPES = 128;
+    private LongAdder[] inbound = new LongAdder[TYPES];
+    private LongAdder[] outbound = new LongAdder[TYPES];
+    private LongAdder badMessages = new LongAdder();
+    private LongAdder sessions = new LongAdder();
+    private LatencyHistogram moveLatency = new LatencyHistogram();
+    private SessionManager sessionManager;
+    private CopyOnWriteArrayList<MailboxManager> shards =
+            new CopyOnWriteArrayList<MailboxManager>();
+    /**
+     * Constructor.
+     * @param sessionManager    the session manager whose queue is reported
+     */
+    public ServerMetrics(SessionManager sessionManager) {
+        this.sessionManager = sessionManager;
+        for (int i = 0; i < TYPES; i++) {
+            inbound[i] = new LongAdder();
+            outbound[i] = new LongAdder();
+        }
+    }
+    /**
+     * Adds a shard whose proxies and outbox are reported.
+     * @param shard the shard's mailbox manager
+     */
+    void addShard(MailboxManager shard) {
+        shards.add(shard);
+    }
+    /**
+     * Counts a received message.
+     * @param type  the message type
+     */
+    void inbound(byte type) {
+        inbound[type & (TYPES - 1)].increment();
+    }
+    /**
+     * Counts a sent message.
+     * @param type  the message type
+     */
+    void outbound(byte type) {
+        outbound[type & (TYPES - 1)].increment();
+    }
+    /**
+     * Counts a message sent to several clients.
+     * @param type  the message type
+     * @param count the number of clients
+     */
+    void outbound(byte type, int count) {
+        outbound[type & (TYPES - 1)].add(count);
+    }
+    /**
+     * Counts a message that could not be decoded.
+     */
+    void badMessage() {
+        badMessages.increment();
+    }
+    /**
+     * Counts a session that started.
+     */
+    void sessionOpened() {
+        sessions.increment();
+    }
+    /**
+     * Counts a session that ended.
+     */
+    void sessionClosed() {
+        sessions.decrement();
+    }
+    /**
+     * Records the time a move took from its receipt to its last send.
+     * @param received  the time the move was received, from System.nanoTime
+     */
+    void move(long received) {
+        moveLatency.record((System.nanoTime() - received) / 1000);
+    }
+    // implement ServerMetricsMXBean
+    public Map<String, Long> getInboundMessages() {
+        return counts(inbound);
+    }
+    public Map<String, Long> getOutboundMessages() {
+        return counts(outbound);
+    }
+    public long getBadMessages() {
+        return badMessages.sum();
+    }
+    public long getActiveSessions() {
+        return sessions.sum();
+    }
+    public int getWaitingPlayers() {
+        return sessionManager.waiting();
+    }
+    public int getProxies() {
+        int proxies = 0;
+        for (MailboxManager shard : shards) {
+            proxies += shard.proxies();
+        }
+        return proxies;
+    }
+    public long getMoves() {
+        return moveLatency.count();
+    }
+    public long getMoveLatencyP50() {
+        return moveLatency.percentile(0.5);
+    }
+    public long getMoveLatencyP99() {
+        return moveLatency.percentile(0.99);
+    }
+    public long getMoveLatencyP999() {
+        return moveLatency.percentile(0.999);
+    }
+    public long getMatchWaitP99() {
+        return sessionManager.waitTime(0.99);
+    }
+    public int getOutboxQueued() {
+        int queued = 0;
+        for (MailboxManager shard : shards) {
+            queued += shard.outbox().queued();
+        }
+        return queued;
+    }
+    public long getOutboxFullWaits() {
+        long waits = 0;
+        for (MailboxManager shard : shards) {
+            waits += shard.outbox().fullWaits();
+        }
+        return waits;
+    }
+    public long getOutboxBlockedSends() {
+        long blocked = 0;
+        for (MailboxManager shard : shards) {
+            blocked += shard.outbox().blockedSends();
+        }
+        return blocked;
+    }
+    /**
+     * Collects the nonzero counters by message type.
+     * @param counters  the counters, indexed by message type
+     * @return  the counts, keyed by the message type's letter
+     */
+    private static Map<String, Long> counts(LongAdder[] counters) {
+        TreeMap<String, Long> counts = new TreeMap<String, Long>();
+        for (int i = 0; i < TYPES; i++) {
+            long count = counters[i].sum();
+            if (count != 0) {
+                counts.put(String.valueOf((char) i), count);
+            }
+        }
+        return counts;
+    }
+}
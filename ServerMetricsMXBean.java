@@ -0,0 +1,82 @@
+import java.util.Map;
+/**
+ * The ServerMetricsMXBean interface lays out the server metrics published
+ * over JMX.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public interface ServerMetricsMXBean {
+    /**
+     * Returns the number of messages received, by message type.
+     * @return  the counts, keyed by the message type's letter
+     */
+    public Map<String, Long> getInboundMessages();
+    /**
+     * Returns the number of messages sent, by message type.
+     * @return  the counts, keyed by the message type's letter
+     */
+    public Map<String, Long> getOutboundMessages();
+    /**
+     * Returns the number of messages that could not be decoded.
+     * @return  the number of bad messages
+     */
+    public long getBadMessages();
+    /**
+     * Returns the number of sessions that have not ended.
+     * @return  the number of active sessions
+     */
+    public long getActiveSessions();
+    /**
+     * Returns the number of players waiting for an opponent.
+     * @return  the number of waiting players
+     */
+    public int getWaitingPlayers();
+    /**
+     * Returns the number of clients in the proxy tables of all shards.
+     * @return  the number of proxies
+     */
+    public int getProxies();
+    /**
+     * Returns the number of moves timed.
+     * @return  the number of moves
+     */
+    public long getMoves();
+    /**
+     * Returns the median time from receiving a move to queueing the last
+     * datagram it caused.
+     * @return  the median in microseconds
+     */
+    public long getMoveLatencyP50();
+    /**
+     * Returns the 99th percentile of the move latency.
+     * @return  the percentile in microseconds
+     */
+    public long getMoveLatencyP99();
+    /**
+     * Returns the 99.9th percentile of the move latency.
+     * @return  the percentile in microseconds
+     */
+    public long getMoveLatencyP999();
+    /**
+     * Returns the 99th percentile of the time players waited for an
+     * opponent.
+     * @return  the percentile in milliseconds
+     */
+    public long getMatchWaitP99();
+    /**
+     * Returns the number of datagrams queued in the outboxes of all shards.
+     * @return  the number of queued datagrams
+     */
+    public int getOutboxQueued();
+    /**
+     * Returns how often a full outbox made a sender wait.
+     * @return  the number of waits
+     */
+    public long getOutboxFullWaits();
+    /**
+     * Returns how often a full socket buffer made an outbox wait.
+     * @return  the number of blocked sends
+     */
+    public long getOutboxBlockedSends();
+}
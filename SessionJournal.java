@@ -0,0 +1,652 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+/**
+ * The SessionJournal class is a write-ahead journal of the events of every
+ * game session, so a restarted server can rebuild its sessions and the
+ * addresses of their players.
+ * <P>
+ * Sessions append an event when a player joins, after every move or new game
+ * and when the session ends. A state event carries the whole state of the
+ * game, including the turn order, rather than the move, so replaying an event twice does no harm and the
+ * journal never repeats the game's rules. Appending encodes the event on the
+ * caller's thread and hands the record to the flusher through a lock-free
+ * queue, so sessions on different shards never wait for each other; each
+ * shard calls flush() once per receive cycle, which writes every record
+ * queued since in one write, so a move costs a few microseconds. The file is
+ * written through to the operating system, which keeps it when the server
+ * process dies; only snapshots are forced to disk.
+ * <P>
+ * The journal also keeps the latest state of every live session, which the
+ * flusher updates by replaying the records it writes. A snapshot thread
+ * periodically writes that state as a compact file of the same records and
+ * starts the journal over, so the journal holds only the events since the
+ * last snapshot. On startup the snapshot and the journal are replayed in
+ * order. Every record carries a checksum, and replay stops at the first record
+ * that is torn or damaged.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public class SessionJournal {
+    /** How often the snapshot thread compacts the journal, in ms. */
+    static final long SNAPSHOT_INTERVAL = 10000;
+    private static final byte JOIN = 'J';
+    private static final byte STATE = 'S';
+    private static final byte QUIT = 'Q';
+    private static final int HEADER = 8;
+
+    private File journalFile;
+    private File oldFile;
+    private File snapshotFile;
+    private FileChannel journal;
+    private ConcurrentLinkedQueue<ByteBuffer> queued =
+            new ConcurrentLinkedQueue<ByteBuffer>();
+    private ThreadLocal<Records> scratch = new ThreadLocal<Records>() {
+        protected Records initialValue() {
+            return new Records(2 * NimCodec.MAX_FRAME);
+        }
+    };
+    private AtomicLong nextSession = new AtomicLong(1);
+    private Object flushLock = new Object();
+    // guarded by flushLock
+    private ByteBuffer batch = ByteBuffer.allocate(65536);
+    private HashMap<Long, Saved> sessions = new HashMap<Long, Saved>();
+    private long events;
+    private CRC32 crc = new CRC32();
+    private volatile long writes;
+    private volatile long snapshots;
+    /**
+     * Constructor. Opens the journal named by the given base name, creating it
+     * if needed, and replays the last snapshot and the journal.
+     * @param base  the journal file; the snapshot is kept next to it
+     * @throws IOException  Thrown when the journal cannot be opened or read
+     */
+    public SessionJournal(File base) throws IOException {
+        journalFile = base;
+        oldFile = new File(base.getPath() + ".old");
+        snapshotFile = new File(base.getPath() + ".snapshot");
+        replay(snapshotFile);
+        replay(oldFile);
+        long end = replay(journalFile);
+        journal = FileChannel.open(journalFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // a torn record at the end would hide everything written after it
+        journal.truncate(end);
+        journal.position(end);
+    }
+    /**
+     * Returns the sessions that were live when the server stopped. Only
+     * sessions with at least one seated player are returned.
+     * @return  the saved sessions, in the order they were created
+     */
+    List<Saved> recovered() {
+        List<Saved> saved = new ArrayList<Saved>();
+        synchronized (flushLock) {
+            for (Saved session : sessions.values()) {
+                if (session.seats > 0) {
+                    saved.add(session);
+                }
+            }
+        }
+        saved.sort(new Comparator<Saved>() {
+            public int compare(Saved a, Saved b) {
+                return Long.compare(a.id, b.id);
+            }
+        });
+        return saved;
+    }
+    /**
+     * Returns a new session id, never used before in this journal.
+     * @return  the session id
+     */
+    long newSession() {
+        return nextSession.getAndIncrement();
+    }
+    /**
+     * Records a player joining a session.
+     * @param session   the session id
+     * @param seat      the player's id in the session
+     * @param players   the number of players the session is for
+     * @param start     the amount of markers each heap starts with
+     * @param rules     the rules the session plays by
+     * @param address   the player's address, or null for a bot
+     * @param name      the player's name
+     */
+    void join(long session, int seat, int players, int[] start,
+            NimRules rules, SocketAddress address, String name) {
+        Records records = records();
+        records.putJoin(session, seat, players, start, rules,
+                (InetSocketAddress) address, name);
+        queue(records);
+    }
+    /**
+     * Records the state of a session's game after a move or a new game.
+     * @param session   the session id
+     * @param heaps     the amount of markers in each heap
+     * @param turn      id of the player who is taking their turn
+     * @param scores    each player's score
+     * @param winner    id belonging to the winner, or -1 if the game is not
+     *                  over
+     * @param order     the seats in the order they take their turns
+     * @param position  the position of the current turn in the order
+     */
+    void state(long session, int[] heaps, int turn, int[] scores,
+            int winner, int[] order, int position) {
+        Records records = records();
+        records.putState(session, heaps, turn, scores, winner, order,
+                position);
+        queue(records);
+    }
+    /**
+     * Records the end of a session.
+     * @param session   the session id
+     */
+    void quit(long session) {
+        Records records = records();
+        records.end(records.begin(QUIT, session));
+        queue(records);
+    }
+    /**
+     * Returns the calling thread's empty buffer for encoding an event.
+     * @return  the thread's records
+     */
+    private Records records() {
+        Records records = scratch.get();
+        records.out.clear();
+        return records;
+    }
+    /**
+     * Hands a copy of an encoded event to the flusher.
+     * @param records   the thread's records, holding the event
+     */
+    private void queue(Records records) {
+        records.out.flip();
+        ByteBuffer record = ByteBuffer.allocate(records.out.remaining());
+        record.put(records.out).flip();
+        queued.add(record);
+    }
+    /**
+     * Writes every event queued since the last flush to the journal in one
+     * write and applies them to the saved sessions. Called by each shard once
+     * per receive cycle.
+     * @throws IOException  Thrown when the journal cannot be written
+     */
+    public void flush() throws IOException {
+        synchronized (flushLock) {
+            ByteBuffer record;
+            while ((record = queued.poll()) != null) {
+                if (batch.remaining() < record.remaining()) {
+                    ByteBuffer larger = ByteBuffer.allocate(Math.max(
+                            batch.capacity() * 2,
+                            batch.position() + record.remaining()));
+                    batch.flip();
+                    larger.put(batch);
+                    batch = larger;
+                }
+                record.position(HEADER);
+                try {
+                    replay(record, record.limit());
+                } catch (BufferUnderflowException
+                        | UTFDataFormatException exc) {
+                    // the journal's own records always decode
+                }
+                record.position(0);
+                batch.put(record);
+                events++;
+            }
+            if (batch.position() == 0) {
+                return;
+            }
+            batch.flip();
+            try {
+                while (batch.hasRemaining()) {
+                    journal.write(batch);
+                }
+            } finally {
+                batch.clear();
+            }
+            writes++;
+        }
+    }
+    /**
+     * Starts the daemon thread that compacts the journal every
+     * SNAPSHOT_INTERVAL.
+     * @param name  the name of the thread
+     */
+    public void start(String name) {
+        Thread thread = new Thread(name) {
+            public void run() {
+                while(true) {
+                    try {
+                        Thread.sleep(SNAPSHOT_INTERVAL);
+                        snapshot();
+                    } catch (InterruptedException exc) {
+                        return;
+                    } catch (IOException exc) {
+                        exc.printStackTrace(System.err);
+                    }
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+    /**
+     * Writes the state of every live session to a new snapshot and starts the
+     * journal over. The old journal is kept until the snapshot is safely on
+     * disk; events appended meanwhile go to the new journal, and replaying
+     * one that the snapshot already contains does no harm.
+     * @throws IOException  Thrown when the snapshot cannot be written
+     */
+    void snapshot() throws IOException {
+        ByteBuffer image;
+        synchronized (flushLock) {
+            flush();
+            if (events == 0) {
+                return;
+            }
+            image = image();
+            // after a failed snapshot the old journal is still needed, so the
+            // journal keeps growing until a snapshot succeeds
+            if (!oldFile.exists()) {
+                journal.close();
+                Files.move(journalFile.toPath(), oldFile.toPath());
+                journal = FileChannel.open(journalFile.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+            }
+        }
+        File temporary = new File(snapshotFile.getPath() + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (image.hasRemaining()) {
+                out.write(image);
+            }
+            out.force(true);
+        }
+        Files.move(temporary.toPath(), snapshotFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(oldFile.toPath());
+        snapshots++;
+    }
+    /**
+     * Encodes every live session as the records that recreate it.
+     * @return  the snapshot, ready to be written
+     */
+    private ByteBuffer image() {
+        Records image = new Records(Math.max(4096,
+                sessions.size() * 2 * NimCodec.MAX_FRAME));
+        for (Saved session : sessions.values()) {
+            for (int seat = 0; seat < session.addresses.length; seat++) {
+                if (session.addresses[seat] != null || session.bots[seat]) {
+                    image.putJoin(session.id, seat, session.players,
+                            session.start, session.rules,
+                            session.addresses[seat], session.names[seat]);
+                }
+            }
+            if (session.heaps != null) {
+                image.putState(session.id, session.heaps, session.turn,
+                        session.scores, session.winner, session.order,
+                        session.position);
+            }
+        }
+        events = 0;
+        image.out.flip();
+        return image.out;
+    }
+    /**
+     * Returns the saved state of a session, creating it on the session's
+     * first event.
+     * @param session   the session id
+     * @return  the saved state
+     */
+    private Saved saved(long session) {
+        Saved saved = sessions.get(session);
+        if (saved == null) {
+            saved = new Saved(session);
+            sessions.put(session, saved);
+            while(true) {
+                long next = nextSession.get();
+                if (next > session
+                        || nextSession.compareAndSet(next, session + 1)) {
+                    break;
+                }
+            }
+        }
+        return saved;
+    }
+    /**
+     * Replays the records of a file into the saved sessions.
+     * @param file  the snapshot or journal
+     * @return  the length of the intact records at the start of the file
+     * @throws IOException  Thrown when the file cannot be read
+     */
+    private long replay(File file) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        int end = 0;
+        try {
+            while (in.remaining() >= HEADER) {
+                int length = in.getInt();
+                int checksum = in.getInt();
+                if (length < 9 || length > in.remaining()) {
+                    break;
+                }
+                crc.reset();
+                crc.update(in.array(), in.position(), length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                int next = in.position() + length;
+                replay(in, next);
+                in.position(next);
+                end = next;
+            }
+        } catch (BufferUnderflowException | UTFDataFormatException exc) {
+            // a record that passed its checksum but does not decode ends the
+            // replay like a torn one
+        }
+        return end;
+    }
+    /**
+     * Replays one record into the saved sessions.
+     * @param in    the record, positioned after its header
+     * @param end   the position after the record
+     * @throws UTFDataFormatException   Thrown if a name cannot be decoded
+     */
+    private void replay(ByteBuffer in, int end)
+            throws UTFDataFormatException {
+        byte type = in.get();
+        long session = in.getLong();
+        switch (type) {
+        case JOIN:
+            int seat = in.get();
+            byte[] ip = new byte[in.get()];
+            in.get(ip);
+            int port = in.getShort() & 0xFFFF;
+            String name = NimCodec.getUTF(in);
+            // journals from before sessions had a size are for two players,
+            // from before sessions had heaps for the default heaps, and from
+            // before sessions had rules for normal play
+            int players = in.position() < end ? in.get() : 2;
+            int[] start = in.position() < end ? getList(in) : null;
+            NimRules rules = NimRules.NORMAL;
+            if (in.position() < end) {
+                try {
+                    rules = NimRules.forName(NimCodec.getUTF(in));
+                } catch (IllegalArgumentException exc) {
+                    throw new BufferUnderflowException();
+                }
+            }
+            try {
+                saved(session).seat(seat, players, start, rules,
+                        ip.length == 0 ? null
+                        : new InetSocketAddress(InetAddress.getByAddress(ip),
+                        port), name);
+            } catch (UnknownHostException exc) {
+                throw new BufferUnderflowException();
+            }
+            break;
+        case STATE:
+            int[] heaps = getList(in);
+            int turn = in.getInt();
+            int[] scores = getList(in);
+            int winner = in.getInt();
+            // journals from before the turn order was journaled are in seat
+            // order
+            int[] order = in.position() < end ? getList(in) : null;
+            int position = in.position() < end ? in.getInt() : turn;
+            saved(session).update(heaps, turn, scores, winner, order,
+                    position);
+            break;
+        case QUIT:
+            saved(session);
+            sessions.remove(session);
+            break;
+        default:
+            throw new BufferUnderflowException();
+        }
+    }
+    /**
+     * Encodes a list of integers with its length.
+     * @param out       the buffer to write to
+     * @param values    the values
+     */
+    private static void putList(ByteBuffer out, int[] values) {
+        out.put((byte) values.length);
+        for (int value : values) {
+            out.putInt(value);
+        }
+    }
+    /**
+     * Decodes a list of integers written by putList.
+     * @param in    the buffer positioned at the list's length
+     * @return  the values
+     */
+    private static int[] getList(ByteBuffer in) {
+        int[] values = new int[in.get() & 0xFF];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.getInt();
+        }
+        return values;
+    }
+    /**
+     * Returns the number of writes the journal made.
+     * @return  the number of flushes that wrote events
+     */
+    public long writes() {
+        return writes;
+    }
+    /**
+     * Returns the number of snapshots written.
+     * @return  the number of snapshots
+     */
+    public long snapshots() {
+        return snapshots;
+    }
+    /**
+     * A Records buffer encodes journal records, growing if a record might
+     * not fit. Each thread that appends events has its own.
+     */
+    private static class Records {
+        ByteBuffer out;
+        CRC32 crc = new CRC32();
+        /**
+         * Constructor.
+         * @param capacity  the initial size of the buffer
+         */
+        public Records(int capacity) {
+            out = ByteBuffer.allocate(capacity);
+        }
+        /**
+         * Appends a join record.
+         * @param session   the session id
+         * @param seat      the player's id in the session
+         * @param players   the number of players the session is for
+         * @param start     the amount of markers each heap starts with
+         * @param rules     the rules the session plays by
+         * @param address   the player's address, or null for a bot
+         * @param name      the player's name
+         */
+        void putJoin(long session, int seat, int players, int[] start,
+                NimRules rules, InetSocketAddress address, String name) {
+            int record = begin(JOIN, session);
+            out.put((byte) seat);
+            // a bot has no address
+            byte[] ip = address != null ? address.getAddress().getAddress()
+                    : new byte[0];
+            out.put((byte) ip.length).put(ip);
+            out.putShort((short) (address != null ? address.getPort() : 0));
+            try {
+                NimCodec.putUTF(out, name);
+            } catch (UTFDataFormatException exc) {
+                // names longer than a frame never get past the codec
+                out.putShort((short) 0);
+            }
+            out.put((byte) players);
+            // an empty list stands for the default heaps
+            putList(out, start != null ? start : new int[0]);
+            try {
+                NimCodec.putUTF(out, rules.toString());
+            } catch (UTFDataFormatException exc) {
+                // rule names are short
+            }
+            end(record);
+        }
+        /**
+         * Appends a state record.
+         * @param session   the session id
+         * @param heaps     the amount of markers in each heap
+         * @param turn      id of the player who is taking their turn
+         * @param scores    each player's score
+         * @param winner    id belonging to the winner, or -1
+         * @param order     the seats in the order they take their turns, or
+         *                  null for seat order
+         * @param position  the position of the current turn in the order
+         */
+        void putState(long session, int[] heaps, int turn, int[] scores,
+                int winner, int[] order, int position) {
+            int start = begin(STATE, session);
+            putList(out, heaps);
+            out.putInt(turn);
+            putList(out, scores);
+            out.putInt(winner);
+            if (order != null) {
+                putList(out, order);
+                out.putInt(position);
+            }
+            end(start);
+        }
+        /**
+         * Starts a record, growing the buffer if a record might not fit.
+         * @param type      the event type
+         * @param session   the session id
+         * @return  the position of the record
+         */
+        int begin(byte type, long session) {
+            if (out.remaining() < 2 * NimCodec.MAX_FRAME) {
+                ByteBuffer larger = ByteBuffer.allocate(out.capacity() * 2);
+                out.flip();
+                larger.put(out);
+                out = larger;
+            }
+            int start = out.position();
+            out.position(start + HEADER);
+            out.put(type).putLong(session);
+            return start;
+        }
+        /**
+         * Completes a record with its length and checksum.
+         * @param start the position of the record
+         */
+        void end(int start) {
+            int length = out.position() - start - HEADER;
+            crc.reset();
+            crc.update(out.array(), start + HEADER, length);
+            out.putInt(start, length);
+            out.putInt(start + 4, (int) crc.getValue());
+        }
+    }
+    /**
+     * A Saved is the latest journaled state of one session.
+     */
+    static class Saved {
+        long id;
+        int players = 2;
+        int seats;
+        InetSocketAddress[] addresses =
+                new InetSocketAddress[NimModel.MAX_PLAYERS];
+        String[] names = new String[NimModel.MAX_PLAYERS];
+        boolean[] bots = new boolean[NimModel.MAX_PLAYERS];
+        int[] start;
+        NimRules rules = NimRules.NORMAL;
+        int[] heaps;
+        int turn;
+        int[] scores;
+        int winner = -1;
+        int[] order;
+        int position;
+        /**
+         * Constructor.
+         * @param id    the session id
+         */
+        public Saved(long id) {
+            this.id = id;
+        }
+        /**
+         * Seats a player.
+         * @param seat      the player's id in the session
+         * @param players   the number of players the session is for
+         * @param start     the amount of markers each heap starts with, or
+         *                  null for the default heaps
+         * @param rules     the rules the session plays by
+         * @param address   the player's address, or null for a bot
+         * @param name      the player's name
+         */
+        void seat(int seat, int players, int[] start, NimRules rules,
+                InetSocketAddress address, String name) {
+            if (seat < 0 || seat >= addresses.length || players < 2
+                    || players > addresses.length) {
+                return;
+            }
+            this.players = players;
+            if (start != null && NimModel.validHeaps(start)) {
+                this.start = start.clone();
+            }
+            this.rules = rules;
+            if (addresses[seat] == null && !bots[seat]) {
+                seats++;
+            }
+            addresses[seat] = address;
+            bots[seat] = address == null;
+            names[seat] = name;
+        }
+        /**
+         * Sets the state of the session's game, reusing the arrays.
+         * @param heaps     the amount of markers in each heap
+         * @param turn      id of the player who is taking their turn
+         * @param scores    each player's score
+         * @param winner    id belonging to the winner, or -1
+         * @param order     the seats in the order they take their turns, or
+         *                  null for seat order
+         * @param position  the position of the current turn in the order
+         */
+        void update(int[] heaps, int turn, int[] scores, int winner,
+                int[] order, int position) {
+            if (this.heaps == null || this.heaps.length != heaps.length) {
+                this.heaps = new int[heaps.length];
+            }
+            if (this.scores == null || this.scores.length != scores.length) {
+                this.scores = new int[scores.length];
+            }
+            System.arraycopy(heaps, 0, this.heaps, 0, heaps.length);
+            System.arraycopy(scores, 0, this.scores, 0, scores.length);
+            this.turn = turn;
+            this.winner = winner;
+            this.order = order != null ? order.clone() : null;
+            this.position = position;
+        }
+    }
+}
@@ -1,18 +1,76 @@
 import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 /**
  * SessionManager handles the matchmaking for the server. It places a player
  * into the available space in an existing session, or it creates a new session
  * if there is no available space in an existing session.
- * 
+ * <P>
+ * One session manager is shared by all shards of the server. A new session is
+ * owned by the shard of the player who created it; a player from another
+ * shard is seated through the owner, so the session stays confined to the
+ * owner's thread. Given an executor, the session manager instead gives every
+ * session its own serial executor on that executor's threads, and all players
+ * reach their session through it.
+ * <P>
+ * Sessions with a free seat wait in a lock-free queue, one queue per number of
+ * players. A joining player claims the first waiting session with a
+ * compare-and-set, skipping sessions whose players have left, so any number of
+ * receiver threads can join at once. A player who claims a seat of a session
+ * that still has free seats after it puts the session back in the queue.
+ * Players get sessions of the size they ask for, or of the server's default
+ * size. Every new session plays with the heaps and by the rules the server
+ * was configured with.
+ * <P>
+ * A player who asks to play against bots gets a session of their own with a
+ * bot in every other seat. Given a bot wait, a session that is still waiting
+ * for players after that long fills its free seats with bots instead.
+ * <P>
+ * Given a session journal, the session manager rebuilds the sessions of the
+ * previous run on startup. The players of a rebuilt session get proxies that
+ * send them the session's state at once and are taken over by whichever shard
+ * hears from the player first; a player who stays silent for
+ * NimViewProxy.IDLE_TIMEOUT is evicted as usual.
+ * <P>
+ * Running games are indexed by their players' names, so a spectator can ask
+ * to watch the game of a given player.
+ *
  * @author  Pavel Rozvora (pxr8306)
  * @version 2015-12-08
  */
-public class SessionManager implements ViewListener {    
-    private NimModel currentSession;
+public class SessionManager implements ViewListener {
+    private ConcurrentLinkedQueue<Waiter>[] waiting = queues();
+    private int players = 2;
+    private int orderMode = NimModel.SEATED;
+    private int[] heaps;
+    private NimRules rules = NimRules.NORMAL;
+    private long botWait;
+    private AtomicInteger depth = new AtomicInteger();
+    private LatencyHistogram waitTimes = new LatencyHistogram();
+    private Executor sessionThreads;
+    private ServerMetrics metrics = new ServerMetrics(this);
+    private ResultsLog results;
+    private SessionJournal journal;
+    private ConcurrentHashMap<SocketAddress, NimViewProxy> restored =
+            new ConcurrentHashMap<SocketAddress, NimViewProxy>();
+    private ConcurrentHashMap<String, NimModel> playing =
+            new ConcurrentHashMap<String, NimModel>();
     /**
-     * Constructor.
+     * Constructor. Sessions are owned by the shard of the player who created
+     * them.
      */
     public SessionManager() {}
+    /**
+     * Constructor. Every session runs on its own serial executor.
+     * @param sessionThreads    the shared executor for the sessions' tasks
+     */
+    public SessionManager(Executor sessionThreads) {
+        this.sessionThreads = sessionThreads;
+    }
     /**
      * The join method sends the players name and a model listener to the
      * server in order to be placed in a game session.
@@ -21,19 +79,399 @@ public class SessionManager implements ViewListener {
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
     public void join(NimViewProxy proxy, String name) throws IOException {
-        if (currentSession == null) {
-            currentSession = new NimModel();
-            currentSession.manager = this;
-            currentSession.addModelListener(proxy);
-            proxy.setViewListener(currentSession);
-            currentSession.join(proxy, name);
-        } else { // a player is waiting in the current session
-            currentSession.addModelListener(proxy);
-            proxy.setViewListener(currentSession);
-            currentSession.join(proxy, name);
-            // session full, the next player to join will need a new session
-            currentSession = null;
+        int size = proxy.players >= 2 && proxy.players <= NimModel.MAX_PLAYERS
+                ? proxy.players : players;
+        if (proxy.bots) {
+            NimModel session = newSession(proxy.manager, size, heaps, rules);
+            seat(session, proxy, name);
+            seatBots(session, proxy.manager.timers());
+            return;
+        }
+        ConcurrentLinkedQueue<Waiter> queue = waiting[size];
+        Waiter waiter = claim(queue);
+        if (waiter != null) {
+            seat(waiter.session, proxy, name);
+            return;
+        }
+        NimModel session = newSession(proxy.manager, size, heaps, rules);
+        waiter = enqueue(session, size - 1);
+        // a player who joined at the same moment may have queued ahead of us
+        // while we found the queue empty; if so, move to their session. The
+        // player is seated only once the race is settled, so a session given
+        // up here never hears from them
+        while (queue.peek() != waiter && waiter.withdraw()) {
+            depth.decrementAndGet();
+            queue.remove(waiter);
+            Waiter other = claim(queue);
+            if (other != null) {
+                metrics.sessionClosed();
+                seat(other.session, proxy, name);
+                return;
+            }
+            waiter = enqueue(session, size - 1);
+        }
+        seat(session, proxy, name);
+        if (botWait > 0) {
+            new Fallback(session, proxy.manager.timers()).schedule();
+        }
+    }
+    /**
+     * Creates the matchmaking queues, one for each number of players.
+     * @return  the queues, indexed by the number of players
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ConcurrentLinkedQueue<Waiter>[] queues() {
+        ConcurrentLinkedQueue<Waiter>[] queues =
+                new ConcurrentLinkedQueue[NimModel.MAX_PLAYERS + 1];
+        for (int i = 2; i < queues.length; i++) {
+            queues[i] = new ConcurrentLinkedQueue<Waiter>();
+        }
+        return queues;
+    }
+    /**
+     * Creates a session.
+     * @param shard the shard of the player who creates the session
+     * @param size  the number of players
+     * @param start the amount of markers each heap starts with, or null for
+     *              the default heaps
+     * @param rules the rules the session plays by
+     * @return  the session
+     */
+    private NimModel newSession(MailboxManager shard, int size, int[] start,
+            NimRules rules) {
+        NimModel session = new NimModel(size, orderMode, start, rules);
+        metrics.sessionOpened();
+        session.manager = this;
+        if (journal != null) {
+            session.id = journal.newSession();
+        }
+        if (sessionThreads != null) {
+            session.owner = new SerialExecutor(sessionThreads);
+        } else {
+            session.owner = shard;
+        }
+        return session;
+    }
+    /**
+     * Seats a bot in every free seat of a new session, through the session's
+     * owner, after the player who created it.
+     * @param session   the session
+     * @param timers    the timer wheel the bots think on
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    private void seatBots(final NimModel session, final TimerWheel timers)
+            throws IOException {
+        session.owner.execute(new TaskQueue.Task() {
+            public void run() throws IOException {
+                while (!session.isClosed() && session.open() > 0) {
+                    session.join(new NimBot(session, timers));
+                }
+            }
+        });
+    }
+    /**
+     * Claims a seat in the first waiting session of a queue, discarding
+     * sessions that are no longer waiting. A session with seats left after
+     * this one goes back into the queue.
+     * @param queue the queue of the sessions of the player's size
+     * @return  the claimed waiter, or null if no session is waiting
+     */
+    private Waiter claim(ConcurrentLinkedQueue<Waiter> queue) {
+        Waiter waiter;
+        while ((waiter = queue.poll()) != null) {
+            if (waiter.claim()) {
+                depth.decrementAndGet();
+                waitTimes.record(TimerWheel.now() - waiter.since);
+                if (waiter.open > 1) {
+                    enqueue(waiter.session, waiter.open - 1);
+                }
+                return waiter;
+            }
+        }
+        return null;
+    }
+    /**
+     * Puts a session with free seats at the end of its queue.
+     * @param session   the session
+     * @param open      the number of free seats
+     * @return  the session's waiter
+     */
+    private Waiter enqueue(NimModel session, int open) {
+        Waiter waiter = new Waiter(session, open);
+        session.waiter = waiter;
+        depth.incrementAndGet();
+        waiting[session.players()].offer(waiter);
+        return waiter;
+    }
+    /**
+     * Seats a player in a session through the session's owner. If the
+     * session ended before the player could be seated, the player joins again.
+     * @param session   the session the player joins
+     * @param proxy     A reference to the view proxy object for the client
+     * @param name      The player's name
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    private void seat(final NimModel session, final NimViewProxy proxy,
+            final String name) throws IOException {
+        if (session.owner == proxy.manager) {
+            proxy.setViewListener(session);
+        } else {
+            proxy.setViewListener(new Relay(session.owner, session, metrics));
+        }
+        session.owner.execute(new TaskQueue.Task() {
+            public void run() throws IOException {
+                if (session.isClosed()) {
+                    proxy.setViewListener(SessionManager.this);
+                    join(proxy, name);
+                } else {
+                    session.addModelListener(proxy);
+                    session.join(proxy, name);
+                }
+            }
+        });
+    }
+    /**
+     * Seats a spectator in the running game of the given player, or in any
+     * running game if the name is empty. A spectator who finds no game is
+     * told that the game ended.
+     * @param proxy A reference to the view proxy object for the client
+     * @param name  The name of a player in the game to watch, or an empty
+     *              name for any game
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public void watch(final NimViewProxy proxy, String name)
+            throws IOException {
+        NimModel game = null;
+        if (name.isEmpty()) {
+            for (NimModel running : playing.values()) {
+                game = running;
+                break;
+            }
+        } else {
+            game = playing.get(name);
+        }
+        if (game == null) {
+            proxy.quit();
+            return;
+        }
+        final NimModel session = game;
+        ViewListener spectator = session.spectator(proxy);
+        if (session.owner == proxy.manager) {
+            proxy.setViewListener(spectator);
+        } else {
+            proxy.setViewListener(new Relay(session.owner, spectator, metrics));
+        }
+        session.owner.execute(new TaskQueue.Task() {
+            public void run() throws IOException {
+                if (session.isClosed()) {
+                    proxy.quit();
+                } else {
+                    session.watch(proxy);
+                }
+            }
+        });
+    }
+    /**
+     * Lists a game that has started under its players' names.
+     * @param session   the session
+     * @param names     the players' names
+     */
+    void started(NimModel session, String[] names) {
+        for (String name : names) {
+            playing.put(name, session);
+        }
+    }
+    /**
+     * Takes a game that ended off the list of running games.
+     * @param session   the session
+     * @param names     the players' names
+     */
+    void ended(NimModel session, String[] names) {
+        for (String name : names) {
+            playing.remove(name, session);
+        }
+    }
+    /**
+     * Takes a session out of matchmaking because its waiting player left.
+     * @param session   the session
+     */
+    void leave(NimModel session) {
+        Waiter waiter = session.waiter;
+        if (waiter != null && waiter.withdraw()) {
+            depth.decrementAndGet();
+            waiting[session.players()].remove(waiter);
+        }
+    }
+    /**
+     * Returns the metrics of the server this session manager matches players
+     * for.
+     * @return  the metrics
+     */
+    ServerMetrics metrics() {
+        return metrics;
+    }
+    /**
+     * Sets the log that finished games are recorded in.
+     * @param results   the results log
+     */
+    public void setResults(ResultsLog results) {
+        this.results = results;
+    }
+    /**
+     * Returns the log that finished games are recorded in.
+     * @return  the results log, or null if results are not kept
+     */
+    ResultsLog results() {
+        return results;
+    }
+    /**
+     * Sets the number of players of a session for players who do not ask for
+     * a size.
+     * @param players   the number of players, 2 to NimModel.MAX_PLAYERS
+     */
+    public void setPlayers(int players) {
+        if (players < 2 || players > NimModel.MAX_PLAYERS) {
+            throw new IllegalArgumentException("Bad number of players");
+        }
+        this.players = players;
+    }
+    /**
+     * Sets the turn order of new sessions.
+     * @param orderMode NimModel.SEATED, NimModel.ROTATE or NimModel.RANDOM
+     */
+    public void setOrder(int orderMode) {
+        this.orderMode = orderMode;
+    }
+    /**
+     * Sets the heaps that new sessions play with.
+     * @param heaps the amount of markers each heap starts with, 1 to
+     *              NimModel.MAX_HEAPS heaps of 1 to NimModel.MAX_MARKERS
+     */
+    public void setHeaps(int[] heaps) {
+        if (!NimModel.validHeaps(heaps) || !rules.playable(heaps)) {
+            throw new IllegalArgumentException("Bad heaps");
+        }
+        this.heaps = heaps.clone();
+    }
+    /**
+     * Sets the rules that new sessions play by.
+     * @param rules the rules
+     */
+    public void setRules(NimRules rules) {
+        if (heaps != null && !rules.playable(heaps)) {
+            throw new IllegalArgumentException("No move with these heaps");
+        }
+        this.rules = rules;
+    }
+    /**
+     * Sets how long a session waits for players before bots take its free
+     * seats.
+     * @param botWait   the wait in milliseconds, or 0 to wait for players
+     *                  as long as it takes
+     */
+    public void setBotWait(long botWait) {
+        this.botWait = botWait;
+    }
+    /**
+     * Sets the journal that session events are recorded in.
+     * @param journal   the session journal
+     */
+    public void setJournal(SessionJournal journal) {
+        this.journal = journal;
+    }
+    /**
+     * Returns the journal that session events are recorded in.
+     * @return  the session journal, or null if sessions are not journaled
+     */
+    SessionJournal journal() {
+        return journal;
+    }
+    /**
+     * Rebuilds the sessions of the previous run from the journal. Each session
+     * is restored on its owner, which sends every player the session's state;
+     * a session that was waiting for a player waits again. Called before the
+     * shards start.
+     * @param shard the shard that owns the rebuilt sessions and sends their
+     *              state
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public void restore(final MailboxManager shard) throws IOException {
+        List<SessionJournal.Saved> sessions = journal.recovered();
+        for (final SessionJournal.Saved saved : sessions) {
+            final NimModel session = newSession(shard, saved.players,
+                    saved.start, saved.rules);
+            session.id = saved.id;
+            final ModelListener[] players = new ModelListener[saved.seats];
+            for (int i = 0; i < players.length; i++) {
+                if (saved.bots[i]) {
+                    players[i] = new NimBot(session, shard.timers());
+                    continue;
+                }
+                NimViewProxy proxy = new NimViewProxy(shard.outbox(),
+                        saved.addresses[i]);
+                proxy.manager = shard;
+                proxy.setViewListener(
+                        new Relay(session.owner, session, metrics));
+                restored.put(saved.addresses[i], proxy);
+                players[i] = proxy;
+            }
+            session.owner.execute(new TaskQueue.Task() {
+                public void run() throws IOException {
+                    session.restore(saved, players);
+                }
+            });
+            if (players.length < saved.players) {
+                enqueue(session, saved.players - players.length);
+                if (botWait > 0) {
+                    new Fallback(session, shard.timers()).schedule();
+                }
+            }
+        }
+        if (sessions.isEmpty()) {
+            return;
         }
+        System.err.println("Restored " + sessions.size() + " sessions");
+        // players who never come back are evicted like silent ones
+        shard.execute(new TaskQueue.Task() {
+            public void run() {
+                shard.timers().schedule(new TimerWheel.Timer() {
+                    protected void expire(long now) throws IOException {
+                        for (SocketAddress address : restored.keySet()) {
+                            NimViewProxy proxy = restored.remove(address);
+                            if (proxy != null) {
+                                proxy.evict();
+                            }
+                        }
+                    }
+                }, TimerWheel.now() + NimViewProxy.IDLE_TIMEOUT);
+            }
+        });
+    }
+    /**
+     * Hands the proxy of a player of a rebuilt session to the shard that
+     * heard from the player first.
+     * @param clientAddress the player's address
+     * @return  the player's proxy, or null if the player is not one of a
+     *          rebuilt session or another shard took the proxy over
+     */
+    NimViewProxy adopt(SocketAddress clientAddress) {
+        return restored.isEmpty() ? null : restored.remove(clientAddress);
+    }
+    /**
+     * Returns the number of sessions waiting for a player.
+     * @return  the queue depth
+     */
+    public int waiting() {
+        return depth.get();
+    }
+    /**
+     * Returns how long players waited to be matched.
+     * @param fraction  the fraction of players, for example 0.99
+     * @return  an upper bound of the wait time within which that fraction of
+     *          the matched players were matched, in milliseconds
+     */
+    public long waitTime(double fraction) {
+        return waitTimes.percentile(fraction);
     }
     /**
      * This method tells the server what move the player made.
@@ -50,9 +488,107 @@ public class SessionManager implements ViewListener {
     public void newGame() throws IOException {}
     /**
      * This method informs the server that a player has terminated the program.
+     * A player who has not joined a session has nothing to leave.
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
-    public void quit() throws IOException {
-        currentSession = null;
+    public void quit() throws IOException {}
+    /**
+     * A Waiter is a session in the matchmaking queue. It is claimed by exactly
+     * one joining player or withdrawn, whichever comes first. A session with
+     * several free seats is queued again with a new waiter for every seat.
+     */
+    static class Waiter {
+        private static final int WAITING = 0;
+        private static final int CLAIMED = 1;
+        private static final int WITHDRAWN = 2;
+        private NimModel session;
+        private int open;
+        private long since = TimerWheel.now();
+        private AtomicInteger state = new AtomicInteger(WAITING);
+        /**
+         * Constructor.
+         * @param session   the session with a free seat
+         * @param open      the number of free seats
+         */
+        public Waiter(NimModel session, int open) {
+            this.session = session;
+            this.open = open;
+        }
+        /**
+         * Claims the free seat for a joining player.
+         * @return  true if the seat was still free
+         */
+        public boolean claim() {
+            return state.compareAndSet(WAITING, CLAIMED);
+        }
+        /**
+         * Takes the session out of the queue.
+         * @return  true if the seat was still free
+         */
+        public boolean withdraw() {
+            return state.compareAndSet(WAITING, WITHDRAWN);
+        }
+        /**
+         * Checks whether a joining player claimed the free seat.
+         * @return  true if the seat was claimed
+         */
+        public boolean claimed() {
+            return state.get() == CLAIMED;
+        }
+    }
+    /**
+     * A Fallback seats bots in a session that has waited botWait for its
+     * players. The timer fires on a shard and the seats are checked on the
+     * session's owner. The session's latest waiter stands for the seats that
+     * no player has claimed; if a player claimed it and is still on the way to
+     * their seat, the check is repeated after another wait.
+     */
+    private class Fallback extends TimerWheel.Timer
+            implements TaskQueue.Task {
+        private NimModel session;
+        private TimerWheel timers;
+        /**
+         * Constructor.
+         * @param session   the waiting session
+         * @param timers    the timer wheel of the shard the session was
+         *                  created on
+         */
+        public Fallback(NimModel session, TimerWheel timers) {
+            this.session = session;
+            this.timers = timers;
+        }
+        /**
+         * Starts the wait.
+         */
+        void schedule() {
+            timers.schedule(this, TimerWheel.now() + botWait);
+        }
+        /**
+         * Hands the check to the session's owner.
+         * @param now   the current time in milliseconds
+         * @throws IOException  Thrown when I/O fails or is interrupted
+         */
+        protected void expire(long now) throws IOException {
+            session.owner.execute(this);
+        }
+        /**
+         * Seats a bot in every seat no player has claimed.
+         * @throws IOException  Thrown when I/O fails or is interrupted
+         */
+        public void run() throws IOException {
+            if (session.isClosed() || session.open() == 0) {
+                return;
+            }
+            Waiter waiter = session.waiter;
+            if (waiter != null && waiter.withdraw()) {
+                depth.decrementAndGet();
+                waiting[session.players()].remove(waiter);
+                for (int i = 0; i < waiter.open; i++) {
+                    session.join(new NimBot(session, timers));
+                }
+            } else if (waiter != null && waiter.claimed()) {
+                schedule();
+            }
+        }
     }
 }
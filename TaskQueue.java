@@ -0,0 +1,28 @@
+import java.io.IOException;
+/**
+ * The TaskQueue interface lays out how work is handed to the owner of a game
+ * session. An owner runs the tasks it is given one at a time and in order, so
+ * a session is never touched by two threads at once and needs no locks.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public interface TaskQueue {
+    /**
+     * Runs a task on behalf of the sessions this queue owns, after every task
+     * given to it before.
+     * @param task  the task to run
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public void execute(Task task) throws IOException;
+    /**
+     * A Task is a unit of work that runs on behalf of a session.
+     */
+    public interface Task {
+        /**
+         * Runs the task.
+         * @throws IOException  Thrown when I/O fails or is interrupted
+         */
+        public void run() throws IOException;
+    }
+}
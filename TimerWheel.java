@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+/**
+ * The TimerWheel class is a hashed timing wheel. One wheel holds the timers of
+ * every session on a thread, so timeouts cost one bucket walk per tick instead
+ * of a thread or a sorted queue per session.
+ * <P>
+ * Timers may be scheduled from any thread, but the wheel is advanced by a
+ * single owner: a shard's receive loop on the server, or a daemon thread
+ * started with start() on the client. A timer is scheduled at most once at a
+ * time and fires on the owner's thread; timers are never cancelled, so an
+ * expired timer checks whether its work is still due and schedules itself
+ * again if needed.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public class TimerWheel {
+    private long tick;
+    private Timer[] buckets;
+    private int mask;
+    private long lastTick;
+    private ConcurrentLinkedQueue<Timer> pending =
+            new ConcurrentLinkedQueue<Timer>();
+    /**
+     * Constructor.
+     * @param tick      the length of one tick in milliseconds
+     * @param size      the number of buckets, rounded up to a power of two
+     */
+    public TimerWheel(long tick, int size) {
+        this.tick = tick;
+        int buckets = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+        this.buckets = new Timer[buckets];
+        this.mask = buckets - 1;
+        this.lastTick = now() / tick;
+    }
+    /**
+     * Returns the current time of the monotonic clock used by all timers.
+     * @return  the time in milliseconds
+     */
+    public static long now() {
+        return System.nanoTime() / 1000000L;
+    }
+    /**
+     * Returns the length of one tick, which is how often the owner should
+     * advance the wheel.
+     * @return  the tick in milliseconds
+     */
+    public long tick() {
+        return tick;
+    }
+    /**
+     * Schedules a timer unless it is already scheduled.
+     * @param timer     the timer
+     * @param deadline  the time at which the timer fires, in milliseconds
+     */
+    public void schedule(Timer timer, long deadline) {
+        if (timer.scheduled.compareAndSet(false, true)) {
+            timer.deadline = deadline;
+            pending.offer(timer);
+        }
+    }
+    /**
+     * Fires every timer whose deadline has passed. Only the owner of the wheel
+     * may call this method.
+     * @param now   the current time in milliseconds
+     */
+    public void advance(long now) {
+        Timer timer;
+        while ((timer = pending.poll()) != null) {
+            // round up so the bucket is only visited once the deadline has
+            // passed, and put passed deadlines in the next bucket
+            long due = Math.max((timer.deadline + tick - 1) / tick,
+                    lastTick + 1);
+            int bucket = (int) due & mask;
+            timer.next = buckets[bucket];
+            buckets[bucket] = timer;
+        }
+        long nowTick = now / tick;
+        // a full turn visits every bucket, so never walk more than one turn
+        long fromTick = Math.max(lastTick + 1, nowTick - mask);
+        for (long t = fromTick; t <= nowTick; t++) {
+            expire((int) t & mask, now);
+        }
+        lastTick = nowTick;
+    }
+    /**
+     * Fires the timers of one bucket whose deadline has passed and keeps the
+     * rest, which are due in a later turn of the wheel.
+     * A timer whose I/O fails is reported and dropped.
+     * @param bucket    the index of the bucket
+     * @param now       the current time in milliseconds
+     */
+    private void expire(int bucket, long now) {
+        Timer timer = buckets[bucket];
+        buckets[bucket] = null;
+        while (timer != null) {
+            Timer next = timer.next;
+            timer.next = null;
+            if (timer.deadline <= now) {
+                timer.scheduled.set(false);
+                try {
+                    timer.expire(now);
+                } catch (IOException exc) {
+                    exc.printStackTrace(System.err);
+                }
+            } else {
+                timer.next = buckets[bucket];
+                buckets[bucket] = timer;
+            }
+            timer = next;
+        }
+    }
+    /**
+     * Starts a daemon thread that owns this wheel and advances it every tick.
+     * @param name  the name of the thread
+     */
+    public void start(String name) {
+        Thread thread = new Thread(name) {
+            public void run() {
+                try {
+                    while(true) {
+                        Thread.sleep(tick);
+                        advance(now());
+                    }
+                } catch (InterruptedException exc) {}
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+    /**
+     * A Timer is an entry of the wheel. Each timer is owned by one object and
+     * reused for every timeout of that object.
+     */
+    public static abstract class Timer {
+        private AtomicBoolean scheduled = new AtomicBoolean();
+        private long deadline;
+        private Timer next;
+        /**
+         * Called on the owner's thread once the deadline has passed.
+         * @param now   the current time in milliseconds
+         * @throws IOException  Thrown when I/O fails or is interrupted
+         */
+        protected abstract void expire(long now) throws IOException;
+    }
+}
@@ -22,12 +22,37 @@ public interface ViewListener {
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
     public void take(int heapId, int markers) throws IOException;
+    /**
+     * This method tells the server what move the player made, as the markers
+     * taken from each heap. Unless a listener handles moves on several heaps,
+     * a move on a single heap is passed to take(heapId, markers) and any
+     * other move is ignored.
+     * @param takes the markers taken from each heap
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public default void take(int[] takes) throws IOException {
+        int heapId = NimRules.single(takes);
+        if (heapId >= 0) {
+            take(heapId, takes[heapId]);
+        }
+    }
     /**
      * This method informs the server that a player would like to start a new
      * game.
      * @throws IOException  Thrown when I/O fails or is interrupted
      */
     public void newGame() throws IOException;
+    /**
+     * The watch method asks to follow a game session as a spectator, who gets
+     * the session's updates but cannot move. Only the session manager seats
+     * spectators; everything else ignores the request.
+     * @param proxy A reference to the view proxy object for the client
+     * @param name  The name of a player in the game to watch, or an empty
+     *              name for any game
+     * @throws IOException  Thrown when I/O fails or is interrupted
+     */
+    public default void watch(NimViewProxy proxy, String name)
+            throws IOException {}
     /**
      * This method informs the server that a player has terminated the program.
      * @throws IOException  Thrown when I/O fails or is interrupted
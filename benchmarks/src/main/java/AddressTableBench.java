@@ -0,0 +1,47 @@
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Random;
+import nim.benchmarks.AddressTableOps;
+/**
+ * The AddressTableBench class is the fixture of AddressTableBenchmark. The
+ * addresses are distinct random IPv4 client addresses, and the lookups
+ * follow a fixed random order of them, so a large table does not stay in the
+ * cache.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public class AddressTableBench implements AddressTableOps {
+    private static final int LOOKUPS = 1 << 20;
+    private InetSocketAddress[] addresses;
+    private HashMap<InetSocketAddress, Integer> map;
+    private AddressTable<Integer> table;
+    private int[] order = new int[LOOKUPS];
+    private int next;
+    public void fill(int sessions) throws Exception {
+        Random random = new Random(sessions);
+        addresses = new InetSocketAddress[sessions];
+        map = new HashMap<InetSocketAddress, Integer>();
+        table = new AddressTable<Integer>();
+        for (int i = 0; i < sessions; i++) {
+            byte[] ip = {10, (byte) (i >> 16), (byte) (i >> 8), (byte) i};
+            addresses[i] = new InetSocketAddress(InetAddress.getByAddress(ip),
+                    1024 + random.nextInt(60000));
+            map.put(addresses[i], i);
+            table.put(addresses[i], i);
+        }
+        random = new Random(1);
+        for (int i = 0; i < LOOKUPS; i++) {
+            order[i] = random.nextInt(sessions);
+        }
+    }
+    public int mapGet() {
+        next = (next + 1) & (LOOKUPS - 1);
+        return map.get(addresses[order[next]]);
+    }
+    public int tableGet() {
+        next = (next + 1) & (LOOKUPS - 1);
+        return table.get(addresses[order[next]]);
+    }
+}
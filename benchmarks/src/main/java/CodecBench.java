@@ -0,0 +1,101 @@
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import nim.benchmarks.CodecOps;
+/**
+ * The CodecBench class is the fixture of CodecBenchmark. Frames are encoded
+ * into one reused buffer, as NimViewProxy does, and decoded in place by the
+ * real proxies. Datagrams that are actually sent go to a sink socket on the
+ * loopback interface that is never read.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public class CodecBench implements CodecOps {
+    private ByteBuffer out = ByteBuffer.allocate(NimCodec.MAX_FRAME);
+    private int[] heaps = {3, 4, 5};
+    private int[] scores = {7, 2};
+    private Outbox outbox;
+    private NimViewProxy proxy;
+    private ByteBuffer take = ByteBuffer.allocate(NimCodec.MAX_FRAME);
+    private ByteBuffer state = ByteBuffer.allocate(NimCodec.MAX_FRAME);
+    private StubListener viewListener = new StubListener();
+    private StubListener modelListener = new StubListener();
+    private NimModelProxy client;
+    /**
+     * Constructor. Opens the sockets and encodes the frames to decode.
+     * @throws Exception    Thrown when a socket cannot be opened
+     */
+    public CodecBench() throws Exception {
+        InetSocketAddress loopback = new InetSocketAddress("127.0.0.1", 0);
+        DatagramChannel sink = DatagramChannel.open().bind(loopback);
+        MailboxManager manager = new MailboxManager(
+                DatagramChannel.open().bind(loopback), new SessionManager());
+        outbox = manager.outbox();
+        outbox.start("benchmark-outbox");
+        proxy = new NimViewProxy(outbox, sink.getLocalAddress());
+        proxy.manager = manager;
+        proxy.setViewListener(viewListener);
+        NimCodec.putTake(take, 1, 3);
+        take.flip();
+        NimCodec.putState(state, heaps, 1, scores, -1);
+        state.flip();
+        client = new NimModelProxy(DatagramChannel.open().bind(loopback),
+                sink.getLocalAddress());
+        client.setModelListener(modelListener);
+    }
+    public int encodeId() {
+        out.clear();
+        NimCodec.putId(out, 1);
+        return out.position();
+    }
+    public int encodeName() throws Exception {
+        out.clear();
+        NimCodec.putName(out, 1, "Alice");
+        return out.position();
+    }
+    public int encodeScore() {
+        out.clear();
+        NimCodec.putScore(out, 1, 7);
+        return out.position();
+    }
+    public int encodeHeap() {
+        out.clear();
+        NimCodec.putHeap(out, 2, 5);
+        return out.position();
+    }
+    public int encodeTurn() {
+        out.clear();
+        NimCodec.putTurn(out, 1);
+        return out.position();
+    }
+    public int encodeWin() {
+        out.clear();
+        NimCodec.putWin(out, 1);
+        return out.position();
+    }
+    public int encodeState() {
+        out.clear();
+        NimCodec.putState(out, heaps, 1, scores, -1);
+        return out.position();
+    }
+    public int encodeQuit() {
+        out.clear();
+        NimCodec.putQuit(out);
+        return out.position();
+    }
+    public int proxyState() throws Exception {
+        proxy.state(heaps, 1, scores, -1);
+        return outbox.queued();
+    }
+    public int decodeTake() throws Exception {
+        take.position(0);
+        proxy.process(take);
+        return viewListener.calls;
+    }
+    public int decodeState() throws Exception {
+        state.position(0);
+        client.process(state);
+        return modelListener.calls;
+    }
+}
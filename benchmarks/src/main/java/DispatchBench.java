@@ -0,0 +1,45 @@
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import nim.benchmarks.DispatchOps;
+/**
+ * The DispatchBench class is the fixture of DispatchBenchmark. A client
+ * channel sends heartbeats to a mailbox manager over the loopback interface,
+ * so every dispatch goes through the selector, the proxy table and the view
+ * proxy's decoder without touching a session.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public class DispatchBench implements DispatchOps {
+    private DatagramChannel mailbox;
+    private DatagramChannel client;
+    private SocketAddress server;
+    private MailboxManager manager;
+    private ByteBuffer heartbeat = ByteBuffer.allocateDirect(1);
+    private long dispatched;
+    /**
+     * Constructor. Opens the sockets.
+     * @throws Exception    Thrown when a socket cannot be opened
+     */
+    public DispatchBench() throws Exception {
+        InetSocketAddress loopback = new InetSocketAddress("127.0.0.1", 0);
+        mailbox = DatagramChannel.open().bind(loopback);
+        manager = new MailboxManager(mailbox, new SessionManager());
+        server = mailbox.getLocalAddress();
+        client = DatagramChannel.open().bind(loopback);
+        NimCodec.putHeartbeat(heartbeat);
+        heartbeat.flip();
+    }
+    public long dispatch() throws Exception {
+        heartbeat.position(0);
+        client.send(heartbeat, server);
+        manager.receiveMessages();
+        return ++dispatched;
+    }
+    public void close() throws Exception {
+        client.close();
+        mailbox.close();
+    }
+}
@@ -0,0 +1,30 @@
+import nim.benchmarks.GameOps;
+/**
+ * The GameBench class is the fixture of GameBenchmark: a full session whose
+ * two players are stub listeners.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public class GameBench implements GameOps {
+    private NimModel session = new NimModel();
+    private StubListener[] players = {new StubListener(), new StubListener()};
+    /**
+     * Constructor. Seats both players.
+     * @throws Exception    Thrown when I/O fails
+     */
+    public GameBench() throws Exception {
+        session.manager = new SessionManager();
+        session.addModelListener(players[0]);
+        session.join(null, "Alice");
+        session.addModelListener(players[1]);
+        session.join(null, "Bob");
+    }
+    public int round() throws Exception {
+        session.take(0, 3);
+        session.take(1, 4);
+        session.take(2, 5);
+        session.newGame();
+        return players[0].calls + players[1].calls;
+    }
+}
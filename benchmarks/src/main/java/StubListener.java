@@ -0,0 +1,45 @@
+import java.io.IOException;
+/**
+ * The StubListener class stands in for both ends of the game in benchmarks.
+ * It does nothing but count the calls it receives, so a benchmark measures
+ * the code that calls it.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public class StubListener implements ModelListener, ViewListener {
+    /** The number of calls received so far. */
+    public int calls;
+    // implement ModelListener
+    public void id(int id) throws IOException {
+        calls++;
+    }
+    public void name(int id, String name) throws IOException {
+        calls++;
+    }
+    public void score(int id, int score) throws IOException {
+        calls++;
+    }
+    public void heap(int heapId, int markers) throws IOException {
+        calls++;
+    }
+    public void turn(int id) throws IOException {
+        calls++;
+    }
+    public void win(int id) throws IOException {
+        calls++;
+    }
+    public void quit() throws IOException {
+        calls++;
+    }
+    // implement ViewListener
+    public void join(NimViewProxy proxy, String name) throws IOException {
+        calls++;
+    }
+    public void take(int heapId, int markers) throws IOException {
+        calls++;
+    }
+    public void newGame() throws IOException {
+        calls++;
+    }
+}
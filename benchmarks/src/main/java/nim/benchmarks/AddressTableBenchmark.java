@@ -0,0 +1,49 @@
+package nim.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+/**
+ * AddressTableBenchmark compares lookups in an AddressTable with lookups in
+ * the HashMap it replaced, at 1k, 100k and 1M sessions.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddressTableBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    private int sessions;
+    private AddressTableOps table;
+    /**
+     * Creates the fixture.
+     * @throws Exception    Thrown when the fixture cannot be created
+     */
+    @Setup
+    public void setup() throws Exception {
+        table = Fixtures.load(AddressTableOps.class, "AddressTableBench");
+        table.fill(sessions);
+    }
+    @Benchmark
+    public int hashMap() {
+        return table.mapGet();
+    }
+    @Benchmark
+    public int addressTable() {
+        return table.tableGet();
+    }
+}
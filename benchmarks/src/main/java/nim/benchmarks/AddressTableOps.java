@@ -0,0 +1,28 @@
+package nim.benchmarks;
+
+/**
+ * The AddressTableOps interface lays out the lookups measured by
+ * AddressTableBenchmark. Each lookup finds the next address of a fixed random
+ * order of client addresses and returns the value stored for it.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public interface AddressTableOps {
+    /**
+     * Fills an AddressTable and a HashMap with the same client addresses.
+     * @param sessions  the number of addresses
+     * @throws Exception    Thrown when an address cannot be created
+     */
+    public void fill(int sessions) throws Exception;
+    /**
+     * Looks up the next address in the HashMap.
+     * @return  the index of the address
+     */
+    public int mapGet();
+    /**
+     * Looks up the next address in the AddressTable.
+     * @return  the index of the address
+     */
+    public int tableGet();
+}
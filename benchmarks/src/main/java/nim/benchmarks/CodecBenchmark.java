@@ -0,0 +1,81 @@
+package nim.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+/**
+ * CodecBenchmark measures encoding every message the server sends, decoding
+ * a move on the server and decoding a state update on the client.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    private CodecOps codec;
+    /**
+     * Creates the fixture.
+     * @throws Exception    Thrown when the fixture cannot be created
+     */
+    @Setup
+    public void setup() throws Exception {
+        codec = Fixtures.load(CodecOps.class, "CodecBench");
+    }
+    @Benchmark
+    public int encodeId() {
+        return codec.encodeId();
+    }
+    @Benchmark
+    public int encodeName() throws Exception {
+        return codec.encodeName();
+    }
+    @Benchmark
+    public int encodeScore() {
+        return codec.encodeScore();
+    }
+    @Benchmark
+    public int encodeHeap() {
+        return codec.encodeHeap();
+    }
+    @Benchmark
+    public int encodeTurn() {
+        return codec.encodeTurn();
+    }
+    @Benchmark
+    public int encodeWin() {
+        return codec.encodeWin();
+    }
+    @Benchmark
+    public int encodeState() {
+        return codec.encodeState();
+    }
+    @Benchmark
+    public int encodeQuit() {
+        return codec.encodeQuit();
+    }
+    @Benchmark
+    public int proxyState() throws Exception {
+        return codec.proxyState();
+    }
+    @Benchmark
+    public int decodeTake() throws Exception {
+        return codec.decodeTake();
+    }
+    @Benchmark
+    public int decodeState() throws Exception {
+        return codec.decodeState();
+    }
+}
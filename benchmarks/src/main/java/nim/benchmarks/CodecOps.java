@@ -0,0 +1,71 @@
+package nim.benchmarks;
+
+/**
+ * The CodecOps interface lays out the encoding and decoding work measured by
+ * CodecBenchmark. Each method handles one frame and returns a value the
+ * benchmark consumes.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public interface CodecOps {
+    /**
+     * Encodes an id frame as NimViewProxy does.
+     * @return  the encoded length
+     */
+    public int encodeId();
+    /**
+     * Encodes a name frame as NimViewProxy does.
+     * @return  the encoded length
+     * @throws Exception    Thrown when the name cannot be encoded
+     */
+    public int encodeName() throws Exception;
+    /**
+     * Encodes a score frame as NimViewProxy does.
+     * @return  the encoded length
+     */
+    public int encodeScore();
+    /**
+     * Encodes a heap frame as NimViewProxy does.
+     * @return  the encoded length
+     */
+    public int encodeHeap();
+    /**
+     * Encodes a turn frame as NimViewProxy does.
+     * @return  the encoded length
+     */
+    public int encodeTurn();
+    /**
+     * Encodes a win frame as NimViewProxy does.
+     * @return  the encoded length
+     */
+    public int encodeWin();
+    /**
+     * Encodes a state frame as NimViewProxy does.
+     * @return  the encoded length
+     */
+    public int encodeState();
+    /**
+     * Encodes a quit frame as NimViewProxy does.
+     * @return  the encoded length
+     */
+    public int encodeQuit();
+    /**
+     * Sends a state update through NimViewProxy.state into its outbox.
+     * @return  the number of frames queued in the outbox
+     * @throws Exception    Thrown when I/O fails
+     */
+    public int proxyState() throws Exception;
+    /**
+     * Decodes a take frame in NimViewProxy.process.
+     * @return  the number of calls the view listener received
+     * @throws Exception    Thrown when I/O fails
+     */
+    public int decodeTake() throws Exception;
+    /**
+     * Decodes a state frame on the client, as NimModelProxy's reader does.
+     * @return  the number of calls the model listener received
+     * @throws Exception    Thrown when I/O fails
+     */
+    public int decodeState() throws Exception;
+}
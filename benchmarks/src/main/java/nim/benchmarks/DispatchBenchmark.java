@@ -0,0 +1,51 @@
+package nim.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+/**
+ * DispatchBenchmark measures a datagram's way through
+ * MailboxManager.receiveMessages over the loopback interface, including the
+ * client's send.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    private DispatchOps dispatch;
+    /**
+     * Creates the fixture.
+     * @throws Exception    Thrown when the fixture cannot be created
+     */
+    @Setup
+    public void setup() throws Exception {
+        dispatch = Fixtures.load(DispatchOps.class, "DispatchBench");
+    }
+    /**
+     * Closes the fixture's sockets.
+     * @throws Exception    Thrown when I/O fails
+     */
+    @TearDown
+    public void tearDown() throws Exception {
+        dispatch.close();
+    }
+    @Benchmark
+    public long dispatch() throws Exception {
+        return dispatch.dispatch();
+    }
+}
@@ -0,0 +1,23 @@
+package nim.benchmarks;
+
+/**
+ * The DispatchOps interface lays out the server's receive path measured by
+ * DispatchBenchmark.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public interface DispatchOps {
+    /**
+     * Sends one datagram to a mailbox manager over the loopback interface and
+     * lets the manager receive and dispatch it.
+     * @return  the number of datagrams the manager dispatched so far
+     * @throws Exception    Thrown when I/O fails
+     */
+    public long dispatch() throws Exception;
+    /**
+     * Releases the sockets.
+     * @throws Exception    Thrown when I/O fails
+     */
+    public void close() throws Exception;
+}
@@ -0,0 +1,29 @@
+package nim.benchmarks;
+
+/**
+ * The Fixtures class loads the benchmark fixtures. The game lives in the
+ * default package, which JMH benchmarks cannot be in and classes in named
+ * packages cannot refer to, so every fixture is a default-package class that
+ * implements an interface of this package and is loaded by name.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+final class Fixtures {
+    /**
+     * Private constructor, no instances.
+     */
+    private Fixtures() {}
+    /**
+     * Creates a fixture.
+     * @param <T>   the fixture's interface
+     * @param type  the fixture's interface
+     * @param name  the name of the default-package class implementing it
+     * @return  the fixture
+     * @throws Exception    Thrown when the fixture cannot be created
+     */
+    static <T> T load(Class<T> type, String name) throws Exception {
+        return type.cast(Class.forName(name).getDeclaredConstructor()
+                .newInstance());
+    }
+}
@@ -0,0 +1,41 @@
+package nim.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+/**
+ * GameBenchmark measures NimModel playing a full game, including the state
+ * updates fanned out to its listeners.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameBenchmark {
+    private GameOps game;
+    /**
+     * Creates the fixture.
+     * @throws Exception    Thrown when the fixture cannot be created
+     */
+    @Setup
+    public void setup() throws Exception {
+        game = Fixtures.load(GameOps.class, "GameBench");
+    }
+    @Benchmark
+    public int round() throws Exception {
+        return game.round();
+    }
+}
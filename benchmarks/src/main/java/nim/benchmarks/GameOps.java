@@ -0,0 +1,17 @@
+package nim.benchmarks;
+
+/**
+ * The GameOps interface lays out the game logic measured by GameBenchmark.
+ *
+ * @author  Pavel Rozvora (pxr8306)
+ * @version 2015-12-08
+ */
+public interface GameOps {
+    /**
+     * Plays one full game in a NimModel whose players are stub listeners:
+     * three takes that empty the heaps, then a new game.
+     * @return  the number of calls the listeners received
+     * @throws Exception    Thrown when I/O fails
+     */
+    public int round() throws Exception;
+}